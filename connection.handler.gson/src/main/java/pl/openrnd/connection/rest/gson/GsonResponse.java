@@ -0,0 +1,154 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import org.apache.http.Header;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pl.openrnd.connection.rest.data.HttpHeader;
+import pl.openrnd.connection.rest.response.Response;
+import pl.openrnd.connection.rest.utils.Utils;
+
+/**
+ * Base class for responses with JSON entity content.
+ *
+ * Content is bound directly from the response entity stream, so it is never materialized
+ * as a String object. All responses use a single shared Gson object, that can be replaced
+ * by calling setGson() (e.g. to register type adapters).
+ *
+ * Content class is taken from type argument of the extending class, e.g.:
+ *
+ * <pre>
+ * public class UserResponse extends GsonResponse&lt;User&gt; {
+ *     ...
+ * }
+ * </pre>
+ *
+ * Each class that extends GsonResponse must provide all constructors of Response class.
+ *
+ * @param <T> Content class
+ */
+public abstract class GsonResponse<T> extends Response {
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    private static final Map<Class<?>, Type> sContentTypes = new ConcurrentHashMap<Class<?>, Type>();
+    private static volatile Gson sGson = new Gson();
+
+    private T mContent;
+
+    /**
+     * Class constructor
+     *
+     * @param exception Exception thrown while executing request
+     */
+    public GsonResponse(Exception exception) {
+        super(exception);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param httpStatusCode Http status code (e.g., 200)
+     * @param httpReasonPhrase Http reason phrase (e.g., "200 OK")
+     * @param headers Response headers
+     * @param entityContentStream Opened input stream for response entity. No need to close it.
+     */
+    public GsonResponse(Integer httpStatusCode, String httpReasonPhrase, Header[] headers, InputStream entityContentStream) {
+        super(httpStatusCode, httpReasonPhrase, headers, entityContentStream);
+    }
+
+    /**
+     * Sets Gson object used by all responses.
+     *
+     * Gson object is thread-safe, so it may be shared by responses parsed on different threads.
+     *
+     * @param gson Gson object
+     */
+    public static void setGson(Gson gson) {
+        if (gson == null) {
+            throw new IllegalArgumentException("Gson object may not be null.");
+        }
+        sGson = gson;
+    }
+
+    /**
+     * Gets Gson object used by all responses.
+     *
+     * @return Gson object
+     */
+    public static Gson getGson() {
+        return sGson;
+    }
+
+    /**
+     * Gets content object bound from response entity content.
+     *
+     * @return Content object or null if response does not contain content
+     */
+    public T getContent() {
+        return mContent;
+    }
+
+    /**
+     * Gets type of content object.
+     *
+     * By default it is the type argument of the extending class. Method may be overridden
+     * when the type can not be resolved this way.
+     *
+     * @return Content object type
+     */
+    protected Type getContentType() {
+        Type result = sContentTypes.get(getClass());
+        if (result == null) {
+            result = resolveContentType(getClass());
+            sContentTypes.put(getClass(), result);
+        }
+        return result;
+    }
+
+    @Override
+    protected void handleContent(InputStream inputStream) throws Exception {
+        String charsetName = Utils.getContentCharset(getHeaderValue(HttpHeader.CONTENT_TYPE));
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, charsetName != null ? charsetName : DEFAULT_CHARSET));
+        mContent = sGson.fromJson(reader, getContentType());
+    }
+
+    private static Type resolveContentType(Class<?> clazz) {
+        Class<?> current = clazz;
+        while (current.getSuperclass() != GsonResponse.class) {
+            current = current.getSuperclass();
+        }
+
+        Type superclass = current.getGenericSuperclass();
+        if (!(superclass instanceof ParameterizedType)) {
+            throw new IllegalStateException(String.format("Content type of %s is not specified", clazz.getName()));
+        }
+        return ((ParameterizedType)superclass).getActualTypeArguments()[0];
+    }
+}
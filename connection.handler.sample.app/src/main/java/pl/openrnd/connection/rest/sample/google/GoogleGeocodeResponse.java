@@ -18,7 +18,6 @@
 
 package pl.openrnd.connection.rest.sample.google;
 
-import com.google.gson.Gson;
 import com.google.gson.annotations.SerializedName;
 
 import org.apache.http.Header;
@@ -26,16 +25,9 @@ import org.apache.http.Header;
 import java.io.InputStream;
 import java.util.ArrayList;
 
-import pl.openrnd.connection.rest.response.Response;
-import pl.openrnd.connection.rest.utils.Utils;
+import pl.openrnd.connection.rest.gson.GsonResponse;
 
-public class GoogleGeocodeResponse extends Response {
-
-    @SerializedName("results")
-    private ArrayList<GeocodeResult> mGeocodeResults;
-
-    @SerializedName("status")
-    private String mStatus;
+public class GoogleGeocodeResponse extends GsonResponse<GoogleGeocodeResponse.GeocodeContent> {
 
     public GoogleGeocodeResponse(Exception exception) {
         super(exception);
@@ -45,24 +37,20 @@ public class GoogleGeocodeResponse extends Response {
         super(httpStatusCode, httpReasonPhrase, headers, entityContentStream);
     }
 
-    @Override
-    protected void handleContent(InputStream inputStream) throws Exception {
-        String content = Utils.streamToString(inputStream);
-
-        //Sets response content description for logging purposes
-        setContentDescription(content);
-
-        GoogleGeocodeResponse response = new Gson().fromJson(content, GoogleGeocodeResponse.class);
-
-        mGeocodeResults = response.mGeocodeResults;
-        mStatus = response.mStatus;
-    }
-
     public ArrayList<GeocodeResult> getGeocodeResults() {
-        return mGeocodeResults;
+        return getContent() != null ? getContent().mGeocodeResults : null;
     }
 
     public String getStatus() {
-        return mStatus;
+        return getContent() != null ? getContent().mStatus : null;
+    }
+
+    public static class GeocodeContent {
+
+        @SerializedName("results")
+        private ArrayList<GeocodeResult> mGeocodeResults;
+
+        @SerializedName("status")
+        private String mStatus;
     }
 }
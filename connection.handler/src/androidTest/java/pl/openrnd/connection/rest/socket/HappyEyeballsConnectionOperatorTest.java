@@ -0,0 +1,181 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.socket;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests HappyEyeballsConnectionOperator on loopback.
+ *
+ * The black-holed address is a listening socket on 127.0.0.2 with a full accept backlog, so the
+ * kernel drops further SYN packets and connection attempts to it hang until they time out.
+ * The reachable address is a listening socket on 127.0.0.1 with the same port.
+ */
+public class HappyEyeballsConnectionOperatorTest extends TestCase {
+    private static final int CONNECTION_TIMEOUT = 10000;
+    private static final int CONNECTION_ATTEMPT_DELAY = 250;
+
+    private InetAddress mBlackHoledAddress;
+    private InetAddress mReachableAddress;
+
+    private ServerSocket mBlackHoledServer;
+    private ServerSocket mReachableServer;
+    private List<Socket> mBacklogSockets;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mBlackHoledAddress = InetAddress.getByAddress(new byte[] {127, 0, 0, 2});
+        mReachableAddress = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+
+        mBlackHoledServer = new ServerSocket();
+        mBlackHoledServer.bind(new InetSocketAddress(mBlackHoledAddress, 0), 1);
+
+        mBacklogSockets = new ArrayList<Socket>();
+        fillBacklog(mBlackHoledServer);
+
+        mReachableServer = new ServerSocket();
+        mReachableServer.bind(new InetSocketAddress(mReachableAddress, mBlackHoledServer.getLocalPort()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (Socket socket : mBacklogSockets) {
+            socket.close();
+        }
+        mBlackHoledServer.close();
+        mReachableServer.close();
+
+        super.tearDown();
+    }
+
+    public void testBlackHoledAddressDoesNotDelayConnection() throws Exception {
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+
+        HappyEyeballsConnectionOperator operator = createOperator(schemeRegistry);
+        OperatedClientConnection conn = operator.createConnection();
+        HttpHost target = new HttpHost("dual-stack.test", mBlackHoledServer.getLocalPort(), "http");
+
+        long start = System.currentTimeMillis();
+        operator.openConnection(conn, target, null, new BasicHttpContext(), createParams());
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(conn.isOpen());
+        assertEquals(mReachableAddress, conn.getSocket().getInetAddress());
+        assertTrue(String.format("Connecting took %d ms", elapsed), elapsed < CONNECTION_TIMEOUT / 2);
+
+        conn.shutdown();
+    }
+
+    public void testLayeredSocketUsesTargetHostName() throws Exception {
+        RecordingLayeredSocketFactory socketFactory = new RecordingLayeredSocketFactory();
+
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("https", socketFactory, 443));
+
+        HappyEyeballsConnectionOperator operator = createOperator(schemeRegistry);
+        OperatedClientConnection conn = operator.createConnection();
+        HttpHost target = new HttpHost("dual-stack.test", mBlackHoledServer.getLocalPort(), "https");
+
+        operator.openConnection(conn, target, null, new BasicHttpContext(), createParams());
+
+        assertTrue(conn.isOpen());
+        assertTrue(conn.isSecure());
+        assertEquals("dual-stack.test", socketFactory.mLayeredHost);
+
+        conn.shutdown();
+    }
+
+    private HappyEyeballsConnectionOperator createOperator(SchemeRegistry schemeRegistry) {
+        return new HappyEyeballsConnectionOperator(schemeRegistry, CONNECTION_ATTEMPT_DELAY) {
+            @Override
+            protected InetAddress[] resolveAddresses(String host) throws UnknownHostException {
+                return new InetAddress[] {mBlackHoledAddress, mReachableAddress};
+            }
+        };
+    }
+
+    private static HttpParams createParams() {
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, CONNECTION_TIMEOUT);
+        return params;
+    }
+
+    private void fillBacklog(ServerSocket serverSocket) throws IOException {
+        for (int i = 0; i < 16; ++i) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(serverSocket.getLocalSocketAddress(), 200);
+                mBacklogSockets.add(socket);
+            } catch (SocketTimeoutException exc) {
+                socket.close();
+                return;
+            }
+        }
+        fail("Accept backlog could not be filled");
+    }
+
+    private static class RecordingLayeredSocketFactory implements LayeredSocketFactory {
+        private String mLayeredHost;
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            mLayeredHost = host;
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return new Socket();
+        }
+
+        @Override
+        public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params) throws IOException {
+            throw new UnsupportedOperationException("Connections are opened by the operator");
+        }
+
+        @Override
+        public boolean isSecure(Socket sock) {
+            return mLayeredHost != null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import java.util.Map;
+
+/**
+ * Storage of encoded cookies used by {@link com.loopj.android.http.PersistentCookieStore}.
+ * <p>&nbsp;</p>
+ * Methods are called by the store on its background thread or from {@link PersistentCookieStore#flush()},
+ * never concurrently.
+ */
+public interface CookiePersistence {
+
+    /**
+     * Loads all stored cookies.
+     *
+     * @return map of cookie names to encoded cookies, never null
+     */
+    Map<String, String> load();
+
+    /**
+     * Writes changed cookies.
+     *
+     * @param changes map of cookie names to encoded cookies, null value for removed cookies
+     * @return true if changes were written, false if they should be written again later
+     */
+    boolean write(Map<String, String> changes);
+}
@@ -19,134 +19,386 @@
 package com.loopj.android.http;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.text.TextUtils;
+import android.util.Base64;
 import android.util.Log;
 
 import org.apache.http.client.CookieStore;
 import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A persistent cookie store which implements the Apache HttpClient {@link org.apache.http.client.CookieStore} interface.
  * Cookies are stored and will persist on the user's device between application sessions since they
- * are serialized and stored in {@link android.content.SharedPreferences}. <p>&nbsp;</p> Instances of this class are
+ * are serialized and stored in {@link android.content.SharedPreferences}, or in other {@link CookiePersistence}
+ * passed to {@link #PersistentCookieStore(CookiePersistence)}. <p>&nbsp;</p> Instances of this class are
  * designed to be used with {@link AsyncHttpClient#setCookieStore}, but can also be used with a
  * regular old apache HttpClient/HttpContext if you prefer.
+ * <p>&nbsp;</p>
+ * Changes are applied to the in-memory store immediately, but they are written to
+ * the persistence in the background, in a single write, {@link #FLUSH_DELAY_MS}
+ * after the first not written change. Changes made within that time are lost if the process is
+ * killed, call {@link #flush()} to write them synchronously (e.g. before the application is closed).
+ * <p>&nbsp;</p>
+ * Stored cookies are loaded in the background, starting when the store is created. Methods of the
+ * store wait until loading is finished, so the store should be created as early as possible.
+ * <p>&nbsp;</p>
+ * Cookies are also indexed by domain, so cookies that may be sent with a request can be found
+ * with {@link #getCookies(String, String, boolean)} without checking all stored cookies.
+ * <p>&nbsp;</p>
+ * Cookies are kept in a queue ordered by expiry date and expired cookies are removed when the
+ * store is accessed, so checking for expired cookies costs nothing until one of them expires.
+ * Number of stored cookies can be limited with {@link #setMaxCookieCount(int)}, least recently
+ * used cookies are removed when the limit is exceeded.
  */
 public class PersistentCookieStore implements CookieStore {
     private static final String LOG_TAG = PersistentCookieStore.class.getSimpleName();
-    private static final String COOKIE_PREFS = "CookiePrefsFile";
-    private static final String COOKIE_NAME_STORE = "names";
-    private static final String COOKIE_NAME_PREFIX = "cookie_";
+    private static final String LEGACY_COOKIE_PREFIX = "ACED";
+
+    private static final int COOKIE_FORMAT_VERSION = 2;
+    private static final int FLAG_VALUE = 1;
+    private static final int FLAG_COMMENT = 1 << 1;
+    private static final int FLAG_DOMAIN = 1 << 2;
+    private static final int FLAG_PATH = 1 << 3;
+    private static final int FLAG_EXPIRY_DATE = 1 << 4;
+    private static final int FLAG_SECURE = 1 << 5;
+    private static final int LOAD_CHUNK_SIZE = 64;
     private boolean omitNonPersistentCookies = false;
 
+    /**
+     * Delay in milliseconds between the first not written change and writing all pending changes.
+     */
+    public static final long FLUSH_DELAY_MS = 500;
+
+    /**
+     * Max delay in milliseconds between retries of failed writes. Delay is doubled after each failure.
+     */
+    public static final long MAX_RETRY_DELAY_MS = 60 * 1000;
+
+    private static final ScheduledExecutorService ioExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PersistentCookieStoreIO");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
     private final ConcurrentHashMap<String, Cookie> cookies;
-    private final SharedPreferences cookiePrefs;
+    private final CookiePersistence persistence;
+
+    private final Object flushLock = new Object();
+    private final Object writeLock = new Object();
+    private final Set<String> dirtyNames = new HashSet<String>();
+    private boolean isFlushScheduled = false;
+    private int failedWriteCount = 0;
+    private final CountDownLatch loadLatch = new CountDownLatch(1);
+    private final Object loadLock = new Object();
+    private boolean isClearPending = false;
+    private final Object indexLock = new Object();
+    private final Map<String, Map<String, Cookie>> domainIndex = new HashMap<String, Map<String, Cookie>>();
+    private final PriorityQueue<ExpiryEntry> expiryQueue = new PriorityQueue<ExpiryEntry>();
+    private final LinkedHashMap<String, Cookie> usageOrder = new LinkedHashMap<String, Cookie>(16, 0.75f, true);
+    private volatile long nextExpiryTime = Long.MAX_VALUE;
+    private int maxCookieCount = 0;
+    private final AtomicInteger modificationCount = new AtomicInteger();
 
     /**
      * Construct a persistent cookie store.
+     * <p>&nbsp;</p>
+     * Stored cookies are loaded in the background.
      *
      * @param context Context to attach cookie store to
      */
     public PersistentCookieStore(Context context) {
-        cookiePrefs = context.getSharedPreferences(COOKIE_PREFS, 0);
+        this(new SharedPreferencesCookiePersistence(context));
+    }
+
+    /**
+     * Construct a cookie store using the given persistence.
+     * <p>&nbsp;</p>
+     * Stored cookies are loaded in the background.
+     *
+     * @param persistence persistence of cookies
+     */
+    public PersistentCookieStore(CookiePersistence persistence) {
+        this.persistence = persistence;
         cookies = new ConcurrentHashMap<String, Cookie>();
 
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean isCleared;
+                try {
+                    loadCookies();
+                } finally {
+                    // Cookies cleared while loading are never visible to other threads
+                    synchronized (loadLock) {
+                        isCleared = isClearPending;
+                        if (isCleared)
+                            clearCookies();
+                        loadLatch.countDown();
+                    }
+                }
+                if (isCleared)
+                    flush();
+            }
+        });
+    }
+
+    private void loadCookies() {
         // Load any previously stored cookies into the store
-        String storedCookieNames = cookiePrefs.getString(COOKIE_NAME_STORE, null);
-        if (storedCookieNames != null) {
-            String[] cookieNames = TextUtils.split(storedCookieNames, ",");
-            for (String name : cookieNames) {
-                String encodedCookie = cookiePrefs.getString(COOKIE_NAME_PREFIX + name, null);
-                if (encodedCookie != null) {
-                    Cookie decodedCookie = decodeCookie(encodedCookie);
-                    if (decodedCookie != null) {
-                        cookies.put(name, decodedCookie);
+        Map<String, String> storedCookies = persistence.load();
+        if (!storedCookies.isEmpty()) {
+            int count = 0;
+            for (Map.Entry<String, String> storedCookie : storedCookies.entrySet()) {
+                String name = storedCookie.getKey();
+                String encodedCookie = storedCookie.getValue();
+                Cookie decodedCookie = decodeCookie(encodedCookie);
+                if (decodedCookie != null) {
+                    putCookie(name, decodedCookie);
+
+                    // Cookies stored in the legacy format are rewritten once in the current one
+                    if (isLegacyEncoding(encodedCookie)) {
+                        markDirty(name);
                     }
                 }
+
+                // Loading of large jars lets other threads run between chunks
+                if (++count % LOAD_CHUNK_SIZE == 0) {
+                    Thread.yield();
+                }
             }
 
             // Clear out expired cookies
-            clearExpired(new Date());
+            removeExpired(new Date());
         }
     }
 
+    /**
+     * Waits until stored cookies are loaded.
+     */
+    private void awaitLoaded() {
+        boolean isInterrupted = false;
+        while (loadLatch.getCount() > 0) {
+            try {
+                loadLatch.await();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets information if stored cookies are loaded.
+     *
+     * @return true if loading is finished
+     */
+    public boolean isLoaded() {
+        return loadLatch.getCount() == 0;
+    }
+
     @Override
     public void addCookie(Cookie cookie) {
         if (omitNonPersistentCookies && !cookie.isPersistent())
             return;
+        awaitLoaded();
         String name = cookie.getName() + cookie.getDomain();
+        Date now = new Date();
+        removeExpired(now);
 
         // Save cookie into local store, or remove if expired
-        if (!cookie.isExpired(new Date())) {
-            cookies.put(name, cookie);
+        if (!cookie.isExpired(now)) {
+            putCookie(name, cookie);
         } else {
-            cookies.remove(name);
+            removeCookie(name);
         }
 
         // Save cookie into persistent store
-        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
-        prefsWriter.putString(COOKIE_NAME_STORE, TextUtils.join(",", cookies.keySet()));
-        prefsWriter.putString(COOKIE_NAME_PREFIX + name, encodeCookie(new SerializableCookie(cookie)));
-        prefsWriter.commit();
+        markDirty(name);
     }
 
+    /**
+     * Removes all cookies.
+     * <p>&nbsp;</p>
+     * Does not wait for stored cookies to be loaded and does not write to the persistent store on
+     * the calling thread. Removal is written on the IO thread right away, without the flush delay,
+     * or right after loading if stored cookies are not loaded yet.
+     */
     @Override
     public void clear() {
-        // Clear cookies from persistent store
-        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
-        for (String name : cookies.keySet()) {
-            prefsWriter.remove(COOKIE_NAME_PREFIX + name);
+        synchronized (loadLock) {
+            if (!isLoaded()) {
+                isClearPending = true;
+                return;
+            }
         }
-        prefsWriter.remove(COOKIE_NAME_STORE);
-        prefsWriter.commit();
 
-        // Clear cookies from local store
-        cookies.clear();
+        clearCookies();
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    private void clearCookies() {
+        // Clear cookies from local store, persistent store is cleared on flush
+        synchronized (flushLock) {
+            dirtyNames.addAll(cookies.keySet());
+            synchronized (indexLock) {
+                cookies.clear();
+                domainIndex.clear();
+                expiryQueue.clear();
+                usageOrder.clear();
+                nextExpiryTime = Long.MAX_VALUE;
+            }
+        }
+        modificationCount.incrementAndGet();
     }
 
     @Override
     public boolean clearExpired(Date date) {
-        boolean clearedAny = false;
-        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
+        awaitLoaded();
+        return removeExpired(date);
+    }
 
-        for (ConcurrentHashMap.Entry<String, Cookie> entry : cookies.entrySet()) {
-            String name = entry.getKey();
-            Cookie cookie = entry.getValue();
-            if (cookie.isExpired(date)) {
-                // Clear cookies from local store
-                cookies.remove(name);
+    private boolean removeExpired(Date date) {
+        long time = date.getTime();
 
-                // Clear cookies from persistent store
-                prefsWriter.remove(COOKIE_NAME_PREFIX + name);
+        // Nothing is due until the earliest expiry date
+        if (time < nextExpiryTime)
+            return false;
 
-                // We've cleared at least one
-                clearedAny = true;
+        List<String> removedNames = new ArrayList<String>();
+        synchronized (indexLock) {
+            ExpiryEntry entry;
+            while ((entry = expiryQueue.peek()) != null && entry.expiryTime <= time) {
+                expiryQueue.poll();
+
+                // Entries of replaced or removed cookies are skipped
+                if (cookies.get(entry.name) == entry.cookie) {
+                    removeIndexed(entry.name);
+                    removedNames.add(entry.name);
+                }
             }
+            updateNextExpiryTime();
         }
 
-        // Update names in persistent store
-        if (clearedAny) {
-            prefsWriter.putString(COOKIE_NAME_STORE, TextUtils.join(",", cookies.keySet()));
+        // Clear cookies from persistent store
+        for (String name : removedNames)
+            markDirty(name);
+
+        return !removedNames.isEmpty();
+    }
+
+    /**
+     * Writes all pending changes to the persistent store synchronously.
+     *
+     * Should not be called on the main thread.
+     */
+    public void flush() {
+        awaitLoaded();
+
+        // Concurrent flushes are serialized, so older state never overwrites newer one
+        synchronized (writeLock) {
+            Set<String> names;
+            synchronized (flushLock) {
+                isFlushScheduled = false;
+                if (dirtyNames.isEmpty()) {
+                    return;
+                }
+                names = new HashSet<String>(dirtyNames);
+                dirtyNames.clear();
+            }
+
+            Map<String, String> changes = new HashMap<String, String>();
+            for (String name : names) {
+                Cookie cookie = cookies.get(name);
+                changes.put(name, cookie != null ? encodeCookie(new SerializableCookie(cookie)) : null);
+            }
+
+            boolean isWritten = persistence.write(changes);
+
+            int failureCount;
+            long retryDelay;
+            synchronized (flushLock) {
+                if (isWritten) {
+                    failedWriteCount = 0;
+                    return;
+                }
+
+                dirtyNames.addAll(names);
+                failureCount = ++failedWriteCount;
+                retryDelay = Math.min(FLUSH_DELAY_MS << Math.min(failureCount - 1, 16), MAX_RETRY_DELAY_MS);
+            }
+
+            // Persistent failures (e.g. full disk) are retried less and less often
+            Log.w(LOG_TAG, String.format("flush(): write failed %d time(s), changes will be written again in %d ms", failureCount, retryDelay));
+            scheduleFlush(retryDelay);
         }
-        prefsWriter.commit();
+    }
 
-        return clearedAny;
+    private void markDirty(String name) {
+        synchronized (flushLock) {
+            dirtyNames.add(name);
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        scheduleFlush(FLUSH_DELAY_MS);
+    }
+
+    private void scheduleFlush(long delay) {
+        synchronized (flushLock) {
+            if (isFlushScheduled) {
+                return;
+            }
+            isFlushScheduled = true;
+        }
+
+        ioExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public List<Cookie> getCookies() {
+        awaitLoaded();
+        removeExpired(new Date());
         return new ArrayList<Cookie>(cookies.values());
     }
 
@@ -160,21 +412,219 @@ public class PersistentCookieStore implements CookieStore {
         this.omitNonPersistentCookies = omitNonPersistentCookies;
     }
 
+    /**
+     * Sets maximum number of stored cookies. When the limit is exceeded, least recently used
+     * cookies (added or returned by {@link #getCookies(String, String, boolean)}) are removed.
+     *
+     * <p>&nbsp;</p>
+     * Does not wait for stored cookies to be loaded, the limit is applied while they are loaded.
+     *
+     * @param maxCookieCount maximum number of cookies, 0 for no limit
+     */
+    public void setMaxCookieCount(int maxCookieCount) {
+        List<String> evictedNames = new ArrayList<String>();
+        synchronized (indexLock) {
+            this.maxCookieCount = Math.max(maxCookieCount, 0);
+            trimToMaxCount(evictedNames);
+        }
+        for (String name : evictedNames)
+            markDirty(name);
+    }
+
     /**
      * Non-standard helper method, to delete cookie
      *
      * @param cookie cookie to be removed
      */
     public void deleteCookie(Cookie cookie) {
+        awaitLoaded();
         String name = cookie.getName() + cookie.getDomain();
-        cookies.remove(name);
-        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
-        prefsWriter.remove(COOKIE_NAME_PREFIX + name);
-        prefsWriter.commit();
+        removeCookie(name);
+        markDirty(name);
+    }
+
+    /**
+     * Returns cookies which may be sent with a request to the given host and path.
+     * <p>&nbsp;</p>
+     * Only cookies indexed under the host and its parent domains are checked. The result is
+     * pre-filtered by domain, path and secure flag, the cookie spec should still be used for
+     * matching each returned cookie.
+     *
+     * @param host   request host
+     * @param path   request path
+     * @param secure true if the request is sent over a secure connection
+     * @return list of cookies in no particular order
+     */
+    public List<Cookie> getCookies(String host, String path, boolean secure) {
+        awaitLoaded();
+        removeExpired(new Date());
+        List<Cookie> result = new ArrayList<Cookie>();
+        if (host == null)
+            return result;
+        if (path == null || path.length() == 0)
+            path = "/";
+
+        String domain = host.toLowerCase(Locale.US);
+        synchronized (indexLock) {
+            while (domain != null) {
+                Map<String, Cookie> domainCookies = domainIndex.get(domain);
+                if (domainCookies != null) {
+                    for (Map.Entry<String, Cookie> entry : domainCookies.entrySet()) {
+                        Cookie cookie = entry.getValue();
+                        if ((secure || !cookie.isSecure()) && isPathMatching(cookie.getPath(), path)) {
+                            result.add(cookie);
+
+                            // Cookie is marked as used
+                            usageOrder.get(entry.getKey());
+                        }
+                    }
+                }
+
+                int dot = domain.indexOf('.');
+                domain = dot >= 0 ? domain.substring(dot + 1) : null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Marks given cookies as used, like returning them from {@link #getCookies(String, String, boolean)}
+     * does. It should be called when cookies returned earlier are used again (e.g. from cached request
+     * headers), so they are not evicted as least recently used.
+     * <p>&nbsp;</p>
+     * Does nothing if maximum number of cookies is not set.
+     *
+     * @param usedCookies cookies returned earlier by {@link #getCookies(String, String, boolean)}
+     */
+    public void touchCookies(List<Cookie> usedCookies) {
+        synchronized (indexLock) {
+            if (maxCookieCount <= 0)
+                return;
+            for (Cookie cookie : usedCookies)
+                usageOrder.get(cookie.getName() + cookie.getDomain());
+        }
+    }
+
+    /**
+     * Returns number of changes made to the store. It can be used for checking if data computed
+     * from cookies (e.g. cached request headers) is still valid.
+     *
+     * @return modification counter, changed on every change of stored cookies
+     */
+    public int getModificationCount() {
+        return modificationCount.get();
+    }
+
+    private void putCookie(String name, Cookie cookie) {
+        List<String> evictedNames = new ArrayList<String>();
+        synchronized (indexLock) {
+            Cookie previous = cookies.put(name, cookie);
+            if (previous != null)
+                unindexCookie(name, previous);
+
+            String domain = getIndexDomain(cookie);
+            Map<String, Cookie> domainCookies = domainIndex.get(domain);
+            if (domainCookies == null) {
+                domainCookies = new HashMap<String, Cookie>();
+                domainIndex.put(domain, domainCookies);
+            }
+            domainCookies.put(name, cookie);
+            usageOrder.put(name, cookie);
+
+            if (cookie.getExpiryDate() != null) {
+                expiryQueue.add(new ExpiryEntry(name, cookie));
+
+                // Entries of replaced and removed cookies are dropped when there are too many of them
+                if (expiryQueue.size() > 2 * cookies.size() + LOAD_CHUNK_SIZE)
+                    rebuildExpiryQueue();
+                updateNextExpiryTime();
+            }
+
+            trimToMaxCount(evictedNames);
+            modificationCount.incrementAndGet();
+        }
+
+        for (String evictedName : evictedNames)
+            markDirty(evictedName);
+    }
+
+    private void removeCookie(String name) {
+        synchronized (indexLock) {
+            removeIndexed(name);
+        }
+    }
+
+    private void removeIndexed(String name) {
+        Cookie previous = cookies.remove(name);
+        if (previous == null)
+            return;
+        unindexCookie(name, previous);
+        usageOrder.remove(name);
+        modificationCount.incrementAndGet();
+    }
+
+    private void trimToMaxCount(List<String> evictedNames) {
+        if (maxCookieCount <= 0)
+            return;
+
+        Iterator<String> iterator = usageOrder.keySet().iterator();
+        while (cookies.size() > maxCookieCount && iterator.hasNext()) {
+            String name = iterator.next();
+            iterator.remove();
+
+            Cookie previous = cookies.remove(name);
+            if (previous != null) {
+                unindexCookie(name, previous);
+                evictedNames.add(name);
+                modificationCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void rebuildExpiryQueue() {
+        expiryQueue.clear();
+        for (Map.Entry<String, Cookie> entry : cookies.entrySet()) {
+            if (entry.getValue().getExpiryDate() != null)
+                expiryQueue.add(new ExpiryEntry(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private void updateNextExpiryTime() {
+        ExpiryEntry entry = expiryQueue.peek();
+        nextExpiryTime = entry != null ? entry.expiryTime : Long.MAX_VALUE;
+    }
+
+    private void unindexCookie(String name, Cookie cookie) {
+        String domain = getIndexDomain(cookie);
+        Map<String, Cookie> domainCookies = domainIndex.get(domain);
+        if (domainCookies != null) {
+            domainCookies.remove(name);
+            if (domainCookies.isEmpty())
+                domainIndex.remove(domain);
+        }
+    }
+
+    private static String getIndexDomain(Cookie cookie) {
+        String domain = cookie.getDomain();
+        if (domain == null)
+            return "";
+        domain = domain.toLowerCase(Locale.US);
+        return domain.startsWith(".") ? domain.substring(1) : domain;
+    }
+
+    private static boolean isPathMatching(String cookiePath, String path) {
+        if (cookiePath == null)
+            return true;
+        if (cookiePath.length() > 1 && cookiePath.endsWith("/"))
+            cookiePath = cookiePath.substring(0, cookiePath.length() - 1);
+        return path.startsWith(cookiePath);
     }
 
     /**
      * Serializes Cookie object into String
+     * <p>&nbsp;</p>
+     * Cookie is written in a compact binary format (format version, presence flags, length-prefixed
+     * strings and expiry date as a long) and Base64 encoded.
      *
      * @param cookie cookie to be encoded, can be null
      * @return cookie encoded as String
@@ -182,25 +632,105 @@ public class PersistentCookieStore implements CookieStore {
     protected String encodeCookie(SerializableCookie cookie) {
         if (cookie == null)
             return null;
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Cookie value = cookie.getCookie();
+
+        int flags = 0;
+        flags |= value.getValue() != null ? FLAG_VALUE : 0;
+        flags |= value.getComment() != null ? FLAG_COMMENT : 0;
+        flags |= value.getDomain() != null ? FLAG_DOMAIN : 0;
+        flags |= value.getPath() != null ? FLAG_PATH : 0;
+        flags |= value.getExpiryDate() != null ? FLAG_EXPIRY_DATE : 0;
+        flags |= value.isSecure() ? FLAG_SECURE : 0;
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream(64);
         try {
-            ObjectOutputStream outputStream = new ObjectOutputStream(os);
-            outputStream.writeObject(cookie);
+            DataOutputStream outputStream = new DataOutputStream(os);
+            outputStream.writeByte(COOKIE_FORMAT_VERSION);
+            outputStream.writeByte(flags);
+            outputStream.writeUTF(value.getName());
+            if (value.getValue() != null)
+                outputStream.writeUTF(value.getValue());
+            if (value.getComment() != null)
+                outputStream.writeUTF(value.getComment());
+            if (value.getDomain() != null)
+                outputStream.writeUTF(value.getDomain());
+            if (value.getPath() != null)
+                outputStream.writeUTF(value.getPath());
+            if (value.getExpiryDate() != null)
+                outputStream.writeLong(value.getExpiryDate().getTime());
+            outputStream.writeInt(value.getVersion());
+            outputStream.close();
         } catch (IOException e) {
             Log.d(LOG_TAG, "IOException in encodeCookie", e);
             return null;
         }
 
-        return byteArrayToHexString(os.toByteArray());
+        return Base64.encodeToString(os.toByteArray(), Base64.NO_WRAP);
     }
 
     /**
      * Returns cookie decoded from cookie string
+     * <p>&nbsp;</p>
+     * Both the current format and the legacy one (hex encoded Java serialization) are supported.
      *
      * @param cookieString string of cookie as returned from http request
      * @return decoded cookie or null if exception occured
      */
     protected Cookie decodeCookie(String cookieString) {
+        if (isLegacyEncoding(cookieString)) {
+            return decodeLegacyCookie(cookieString);
+        }
+
+        Cookie cookie = null;
+        try {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(Base64.decode(cookieString, Base64.NO_WRAP)));
+            if (inputStream.readByte() != COOKIE_FORMAT_VERSION) {
+                throw new IOException("Unsupported cookie format");
+            }
+
+            int flags = inputStream.readByte();
+            String name = inputStream.readUTF();
+            BasicClientCookie clientCookie = new BasicClientCookie(name, (flags & FLAG_VALUE) != 0 ? inputStream.readUTF() : null);
+            if ((flags & FLAG_COMMENT) != 0)
+                clientCookie.setComment(inputStream.readUTF());
+            if ((flags & FLAG_DOMAIN) != 0)
+                clientCookie.setDomain(inputStream.readUTF());
+            if ((flags & FLAG_PATH) != 0)
+                clientCookie.setPath(inputStream.readUTF());
+            if ((flags & FLAG_EXPIRY_DATE) != 0)
+                clientCookie.setExpiryDate(new Date(inputStream.readLong()));
+            clientCookie.setSecure((flags & FLAG_SECURE) != 0);
+            clientCookie.setVersion(inputStream.readInt());
+            cookie = clientCookie;
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "IOException in decodeCookie", e);
+        } catch (IllegalArgumentException e) {
+            Log.d(LOG_TAG, "IllegalArgumentException in decodeCookie", e);
+        }
+
+        return cookie;
+    }
+
+    /**
+     * Checks if cookie string uses legacy format, i.e. hex encoded Java serialization.
+     * <p>&nbsp;</p>
+     * Java serialization stream starts with 0xACED magic number, while the current format
+     * starts with the format version, so its Base64 encoding never starts with "ACED".
+     *
+     * @param cookieString encoded cookie
+     * @return true if legacy format is used
+     */
+    protected boolean isLegacyEncoding(String cookieString) {
+        return cookieString.startsWith(LEGACY_COOKIE_PREFIX);
+    }
+
+    /**
+     * Returns cookie decoded from cookie string in legacy format (hex encoded Java serialization)
+     *
+     * @param cookieString string of cookie as returned from http request
+     * @return decoded cookie or null if exception occured
+     */
+    protected Cookie decodeLegacyCookie(String cookieString) {
         byte[] bytes = hexStringToByteArray(cookieString);
         ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
         Cookie cookie = null;
@@ -249,4 +779,21 @@ public class PersistentCookieStore implements CookieStore {
         }
         return data;
     }
-}
\ No newline at end of file
+
+    private static class ExpiryEntry implements Comparable<ExpiryEntry> {
+        private final String name;
+        private final Cookie cookie;
+        private final long expiryTime;
+
+        private ExpiryEntry(String name, Cookie cookie) {
+            this.name = name;
+            this.cookie = cookie;
+            this.expiryTime = cookie.getExpiryDate().getTime();
+        }
+
+        @Override
+        public int compareTo(ExpiryEntry another) {
+            return expiryTime < another.expiryTime ? -1 : (expiryTime == another.expiryTime ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+    Android Asynchronous Http Client
+    Copyright (c) 2011 James Smith <james@loopj.com>
+    http://loopj.com
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.loopj.android.http;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cookie persistence keeping cookies in {@link android.content.SharedPreferences}, one preference per
+ * cookie plus a list of cookie names. This is the default persistence of {@link PersistentCookieStore}.
+ * <p>&nbsp;</p>
+ * Note that SharedPreferences rewrites the whole preferences file on every commit.
+ */
+public class SharedPreferencesCookiePersistence implements CookiePersistence {
+    private static final String COOKIE_PREFS = "CookiePrefsFile";
+    private static final String COOKIE_NAME_STORE = "names";
+    private static final String COOKIE_NAME_PREFIX = "cookie_";
+
+    private final SharedPreferences cookiePrefs;
+    private final Set<String> names = new LinkedHashSet<String>();
+
+    /**
+     * Construct a SharedPreferences cookie persistence.
+     *
+     * @param context Context to attach cookie persistence to
+     */
+    public SharedPreferencesCookiePersistence(Context context) {
+        cookiePrefs = context.getSharedPreferences(COOKIE_PREFS, 0);
+    }
+
+    @Override
+    public Map<String, String> load() {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        names.clear();
+
+        String storedCookieNames = cookiePrefs.getString(COOKIE_NAME_STORE, null);
+        if (storedCookieNames != null) {
+            for (String name : TextUtils.split(storedCookieNames, ",")) {
+                String encodedCookie = cookiePrefs.getString(COOKIE_NAME_PREFIX + name, null);
+                if (encodedCookie != null) {
+                    result.put(name, encodedCookie);
+                    names.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean write(Map<String, String> changes) {
+        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String name = change.getKey();
+            if (change.getValue() != null) {
+                prefsWriter.putString(COOKIE_NAME_PREFIX + name, change.getValue());
+                names.add(name);
+            } else {
+                prefsWriter.remove(COOKIE_NAME_PREFIX + name);
+                names.remove(name);
+            }
+        }
+        prefsWriter.putString(COOKIE_NAME_STORE, TextUtils.join(",", names));
+        return prefsWriter.commit();
+    }
+}
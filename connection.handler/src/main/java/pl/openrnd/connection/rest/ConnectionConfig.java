@@ -20,6 +20,8 @@ package pl.openrnd.connection.rest;
 
 import org.apache.http.conn.scheme.SchemeRegistry;
 
+import pl.openrnd.connection.rest.cache.DiskCacheStorage;
+import pl.openrnd.connection.rest.cookie.CookieStorage;
 import pl.openrnd.connection.rest.constant.ConnectionConstants;
 
 /**
@@ -32,8 +34,19 @@ public class ConnectionConfig {
 	private boolean mIsFullAsync;
 	private boolean mAreLogsEnabled;
 	private boolean mIsUsingCookies;
+	private int mMaxCookieCount;
+	private CookieStorage mCookieStorage;
 	private int mLogsSize;
+	private int mLogsContentCaptureSize;
+	private int mErrorContentCaptureSize;
     private SchemeRegistry mSchemeRegistry;
+    private boolean mIsDualStackRacing;
+    private int mConnectionAttemptDelay;
+    private long mMaxContentLength;
+    private int mParseThreadPoolSize;
+    private long mMemoryCacheSize;
+    private long mDiskCacheSize;
+    private DiskCacheStorage mDiskCacheStorage;
 
     /**
      * Gets connection read timeout in milliseconds
@@ -96,6 +109,24 @@ public class ConnectionConfig {
 		return mLogsSize;
 	}
 
+    /**
+     * Gets max number of response entity content bytes captured for logs
+     *
+     * @return Max number of captured bytes
+     */
+    public int getLogsContentCaptureSize() {
+        return mLogsContentCaptureSize;
+    }
+
+    /**
+     * Gets max number of response entity content bytes captured by UnsupportedResponseException
+     *
+     * @return Max number of captured bytes
+     */
+    public int getErrorContentCaptureSize() {
+        return mErrorContentCaptureSize;
+    }
+
     /**
      * Gets the schemes supported
      *
@@ -105,6 +136,79 @@ public class ConnectionConfig {
         return mSchemeRegistry;
     }
 
+    /**
+     * Gets dual-stack connection racing state.
+     *
+     * If enabled, connections to hosts with both IPv6 and IPv4 addresses are attempted
+     * in parallel and the first established one is used.
+     *
+     * @see pl.openrnd.connection.rest.socket.HappyEyeballsConnectionOperator
+     *
+     * @return True if dual-stack connection racing is enabled, false otherwise
+     */
+    public boolean isDualStackRacing() {
+        return mIsDualStackRacing;
+    }
+
+    /**
+     * Gets delay in milliseconds between starting consecutive connection attempts
+     * when dual-stack connection racing is enabled.
+     *
+     * @return Connection attempt delay in milliseconds
+     */
+    public int getConnectionAttemptDelay() {
+        return mConnectionAttemptDelay;
+    }
+
+    /**
+     * Gets max response entity content length in bytes.
+     *
+     * Can be overridden by particular requests.
+     *
+     * @see pl.openrnd.connection.rest.request.Request#setMaxContentLength(long)
+     *
+     * @return Max response entity content length in bytes or ConnectionConstants.NO_CONTENT_LENGTH_LIMIT if not limited
+     */
+    public long getMaxContentLength() {
+        return mMaxContentLength;
+    }
+
+    /**
+     * Gets number of threads used by ConnectionHandlerAsync for creating response objects.
+     *
+     * @return Number of parse threads or 0 if responses are created on the network thread
+     */
+    public int getParseThreadPoolSize() {
+        return mParseThreadPoolSize;
+    }
+
+    /**
+     * Gets max number of bytes used by responses cached in memory.
+     *
+     * @return Memory cache size in bytes or 0 if memory cache is disabled
+     */
+    public long getMemoryCacheSize() {
+        return mMemoryCacheSize;
+    }
+
+    /**
+     * Gets max number of bytes used by responses cached on disk.
+     *
+     * @return Disk cache size in bytes or 0 if disk cache is disabled
+     */
+    public long getDiskCacheSize() {
+        return mDiskCacheSize;
+    }
+
+    /**
+     * Gets storage engine of the disk cache.
+     *
+     * @return DiskCacheStorage value
+     */
+    public DiskCacheStorage getDiskCacheStorage() {
+        return mDiskCacheStorage;
+    }
+
     /**
      * Gets cookies state
      *
@@ -113,16 +217,45 @@ public class ConnectionConfig {
 	public boolean isUsingCookies() {
 		return mIsUsingCookies;
 	}
+
+    /**
+     * Gets maximum number of stored cookies.
+     *
+     * @return Maximum number of cookies or ConnectionConstants.NO_COOKIE_COUNT_LIMIT
+     */
+    public int getMaxCookieCount() {
+        return mMaxCookieCount;
+    }
+
+    /**
+     * Gets persistence backend of cookies.
+     *
+     * @return CookieStorage value
+     */
+    public CookieStorage getCookieStorage() {
+        return mCookieStorage;
+    }
 	
 	private ConnectionConfig(Builder builder) {
 		mReadTimeout = validateTimeout(builder.mReadTimeout, ConnectionConstants.DEFAULT_HTTP_READ_TIMEOUT);
 		mConnectionTimeout = validateTimeout(builder.mConnectionTimeout, ConnectionConstants.DEFAULT_HTTP_CONNECTION_TIMEOUT);
 		mRequestWarningTime = validateTimeout(builder.mRequestWarningTime, ConnectionConstants.DEFAULT_HTTP_CONNECTION_WARNING_TIMEOUT);
 		mLogsSize = validateNonNegative(builder.mLogsSize, ConnectionConstants.DEFAULT_LOG_SIZE);
+		mLogsContentCaptureSize = validateNonNegative(builder.mLogsContentCaptureSize, ConnectionConstants.DEFAULT_LOG_CONTENT_CAPTURE_SIZE);
+		mErrorContentCaptureSize = validateNonNegative(builder.mErrorContentCaptureSize, ConnectionConstants.DEFAULT_ERROR_CONTENT_CAPTURE_SIZE);
 		mAreLogsEnabled = builder.mAreLogsEnabled;
 		mIsUsingCookies = builder.mIsUsingCookies;
+		mMaxCookieCount = validateNonNegative(builder.mMaxCookieCount, ConnectionConstants.DEFAULT_MAX_COOKIE_COUNT);
+		mCookieStorage = builder.mCookieStorage != null ? builder.mCookieStorage : ConnectionConstants.DEFAULT_COOKIE_STORAGE;
 		mIsFullAsync = builder.mIsFullAsync;
         mSchemeRegistry = builder.mSchemeRegistry;
+        mIsDualStackRacing = builder.mIsDualStackRacing;
+        mConnectionAttemptDelay = validateTimeout(builder.mConnectionAttemptDelay, ConnectionConstants.DEFAULT_CONNECTION_ATTEMPT_DELAY);
+        mParseThreadPoolSize = validateNonNegative(builder.mParseThreadPoolSize, ConnectionConstants.DEFAULT_PARSE_THREAD_POOL_SIZE);
+        mMaxContentLength = builder.mMaxContentLength != null ? builder.mMaxContentLength : ConnectionConstants.DEFAULT_MAX_CONTENT_LENGTH;
+        mMemoryCacheSize = Math.max(builder.mMemoryCacheSize, 0);
+        mDiskCacheSize = Math.max(builder.mDiskCacheSize, 0);
+        mDiskCacheStorage = builder.mDiskCacheStorage != null ? builder.mDiskCacheStorage : ConnectionConstants.DEFAULT_DISK_CACHE_STORAGE;
 	}
 	
 	private Integer validateTimeout(Integer timeout, Integer defaultValue) {
@@ -159,8 +292,19 @@ public class ConnectionConfig {
 		private boolean mIsFullAsync;
 		private boolean mAreLogsEnabled;
 		private int mLogsSize;
+		private int mLogsContentCaptureSize;
+		private int mErrorContentCaptureSize;
 		private boolean mIsUsingCookies;
+		private int mMaxCookieCount;
+		private CookieStorage mCookieStorage;
         private SchemeRegistry mSchemeRegistry;
+        private boolean mIsDualStackRacing;
+        private Integer mConnectionAttemptDelay;
+        private Long mMaxContentLength;
+        private int mParseThreadPoolSize;
+        private long mMemoryCacheSize;
+        private long mDiskCacheSize;
+        private DiskCacheStorage mDiskCacheStorage;
 
         /**
          * Base class constructor
@@ -169,7 +313,16 @@ public class ConnectionConfig {
 			mIsFullAsync = ConnectionConstants.DEFAULT_FULL_ASYNC;
 			mAreLogsEnabled = ConnectionConstants.DEFAULT_LOG_STATE;
 			mLogsSize = ConnectionConstants.DEFAULT_LOG_SIZE;
+			mLogsContentCaptureSize = ConnectionConstants.DEFAULT_LOG_CONTENT_CAPTURE_SIZE;
+			mErrorContentCaptureSize = ConnectionConstants.DEFAULT_ERROR_CONTENT_CAPTURE_SIZE;
 			mIsUsingCookies = ConnectionConstants.DEFAULT_USING_COOKIES;
+			mMaxCookieCount = ConnectionConstants.DEFAULT_MAX_COOKIE_COUNT;
+			mCookieStorage = ConnectionConstants.DEFAULT_COOKIE_STORAGE;
+			mIsDualStackRacing = ConnectionConstants.DEFAULT_DUAL_STACK_RACING;
+			mParseThreadPoolSize = ConnectionConstants.DEFAULT_PARSE_THREAD_POOL_SIZE;
+			mMemoryCacheSize = ConnectionConstants.DEFAULT_MEMORY_CACHE_SIZE;
+			mDiskCacheSize = ConnectionConstants.DEFAULT_DISK_CACHE_SIZE;
+			mDiskCacheStorage = ConnectionConstants.DEFAULT_DISK_CACHE_STORAGE;
 		}
 
         /**
@@ -237,6 +390,37 @@ public class ConnectionConfig {
 			return this;
 		}
 
+        /**
+         * Sets max number of response entity content bytes captured for logs.
+         *
+         * When logs are enabled, ConnectionHandler keeps a copy of the first bytes of each
+         * response entity content and uses it as response content description in the log,
+         * unless the response provides its own description.
+         *
+         * @param logsContentCaptureSize Max number of captured bytes, 0 to disable capturing
+         * @return Builder object
+         */
+		public Builder logsContentCaptureSize(int logsContentCaptureSize) {
+			mLogsContentCaptureSize = logsContentCaptureSize;
+			return this;
+		}
+
+        /**
+         * Sets max number of response entity content bytes captured by UnsupportedResponseException.
+         *
+         * Content of responses with not supported status code is read only up to this limit.
+         * When the content is longer, the rest of it is not read and the connection is aborted.
+         *
+         * @see pl.openrnd.connection.rest.exception.UnsupportedResponseException
+         *
+         * @param errorContentCaptureSize Max number of captured bytes, 0 to disable capturing
+         * @return Builder object
+         */
+		public Builder errorContentCaptureSize(int errorContentCaptureSize) {
+			mErrorContentCaptureSize = errorContentCaptureSize;
+			return this;
+		}
+
         /**
          * Sets cookies state
          *
@@ -248,6 +432,36 @@ public class ConnectionConfig {
 			return this;
 		}
 
+        /**
+         * Sets maximum number of stored cookies. Least recently used cookies are removed when
+         * the limit is exceeded.
+         *
+         * @param maxCookieCount Maximum number of cookies or ConnectionConstants.NO_COOKIE_COUNT_LIMIT
+         * @return Builder object
+         */
+        public Builder maxCookieCount(int maxCookieCount) {
+            mMaxCookieCount = maxCookieCount;
+            return this;
+        }
+
+        /**
+         * Sets persistence backend of cookies.
+         *
+         * SHARED_PREFERENCES rewrites all cookies on every write. JOURNAL appends only changed
+         * cookies to a journal file, which is faster for large cookie jars. MEMORY does not store
+         * cookies at all. Each backend keeps its own data, so cookies are not shared when the backend
+         * is changed.
+         *
+         * @see pl.openrnd.connection.rest.cookie.JournalCookiePersistence
+         *
+         * @param cookieStorage CookieStorage value
+         * @return Builder object
+         */
+        public Builder cookieStorage(CookieStorage cookieStorage) {
+            mCookieStorage = cookieStorage;
+            return this;
+        }
+
         /**
          * Sets the schemes supported
          *
@@ -259,6 +473,126 @@ public class ConnectionConfig {
             return this;
         }
 
+        /**
+         * Sets dual-stack connection racing state.
+         *
+         * When enabled, connections of schemes using plain and layered (e.g. SSL) socket factories
+         * are opened by HappyEyeballsConnectionOperator, so a broken IPv6 path does not delay
+         * connecting over IPv4 by the whole connection timeout.
+         *
+         * @see pl.openrnd.connection.rest.socket.HappyEyeballsConnectionOperator
+         *
+         * @param dualStackRacing Dual-stack connection racing state
+         * @return Builder object
+         */
+        public Builder dualStackRacing(boolean dualStackRacing) {
+            mIsDualStackRacing = dualStackRacing;
+            return this;
+        }
+
+        /**
+         * Sets delay in milliseconds between starting consecutive connection attempts
+         * when dual-stack connection racing is enabled.
+         *
+         * @param connectionAttemptDelay Connection attempt delay in milliseconds
+         * @return Builder object
+         */
+        public Builder connectionAttemptDelay(Integer connectionAttemptDelay) {
+            mConnectionAttemptDelay = connectionAttemptDelay;
+            return this;
+        }
+
+        /**
+         * Sets max response entity content length in bytes.
+         *
+         * Longer responses are checked against Content-Length header before reading and counted
+         * while reading. When the limit is exceeded, the connection is closed and response
+         * is created with ContentLengthExceededException.
+         *
+         * @see pl.openrnd.connection.rest.exception.ContentLengthExceededException
+         *
+         * @param maxContentLength Max content length in bytes, negative value or null to disable the limit
+         * @return Builder object
+         */
+        public Builder maxContentLength(Long maxContentLength) {
+            mMaxContentLength = maxContentLength;
+            return this;
+        }
+
+        /**
+         * Sets number of threads used by ConnectionHandlerAsync for creating response objects.
+         *
+         * When set, requests are processed in two stages. Network stage executes the request,
+         * reads response entity content into memory and releases the connection. Parse stage
+         * creates the response object (Response.handleContent()) on one of the parse threads,
+         * so slow parsing does not block executing next requests. Requests that do not support
+         * content buffering are processed entirely on the network thread.
+         *
+         * Responses of requests parsed on different threads may be delivered in different order
+         * than the requests were added.
+         *
+         * @see pl.openrnd.connection.rest.request.Request#supportsContentBuffering()
+         *
+         * @param parseThreadPoolSize Number of parse threads, 0 to create responses on the network thread
+         * @return Builder object
+         */
+        public Builder parseThreadPoolSize(int parseThreadPoolSize) {
+            mParseThreadPoolSize = parseThreadPoolSize;
+            return this;
+        }
+
+        /**
+         * Sets max number of bytes used by responses cached in memory.
+         *
+         * When set, responses of GET requests are cached according to their Cache-Control
+         * and Expires headers and fresh cached responses are used without network access.
+         * Least recently used responses are evicted when the limit is exceeded.
+         *
+         * @see pl.openrnd.connection.rest.cache.HttpCache
+         *
+         * @param memoryCacheSize Memory cache size in bytes, 0 to disable memory cache
+         * @return Builder object
+         */
+        public Builder memoryCacheSize(long memoryCacheSize) {
+            mMemoryCacheSize = memoryCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets max number of bytes used by responses cached on disk.
+         *
+         * Disk cache is kept in application cache directory and survives application restarts.
+         * When both memory and disk caches are enabled, memory cache holds the most recently
+         * used part of the disk cache.
+         *
+         * @see pl.openrnd.connection.rest.cache.DiskResponseCache
+         *
+         * @param diskCacheSize Disk cache size in bytes, 0 to disable disk cache
+         * @return Builder object
+         */
+        public Builder diskCacheSize(long diskCacheSize) {
+            mDiskCacheSize = diskCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets storage engine of the disk cache.
+         *
+         * FILES storage keeps each entry in a separate file. SEGMENTS storage packs entries
+         * into a few large segment files, which is faster when the cache holds many small entries.
+         * Each storage uses its own directory, so entries are not shared when the storage is changed.
+         *
+         * @see pl.openrnd.connection.rest.cache.DiskResponseCache
+         * @see pl.openrnd.connection.rest.cache.SegmentResponseCache
+         *
+         * @param diskCacheStorage DiskCacheStorage value
+         * @return Builder object
+         */
+        public Builder diskCacheStorage(DiskCacheStorage diskCacheStorage) {
+            mDiskCacheStorage = diskCacheStorage;
+            return this;
+        }
+
         /**
          * Creates new instance of ConnectionConfig class
          *
@@ -23,7 +23,9 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import com.loopj.android.http.CookiePersistence;
 import com.loopj.android.http.PersistentCookieStore;
+import com.loopj.android.http.SharedPreferencesCookiePersistence;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -33,7 +35,12 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.HttpClientParams;
 import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.protocol.RequestAddCookies;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
@@ -41,15 +48,53 @@ import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.ByteArrayBuffer;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import pl.openrnd.connection.rest.cache.CacheEntry;
+import pl.openrnd.connection.rest.cache.CachePolicy;
+import pl.openrnd.connection.rest.cache.CacheStatistics;
+import pl.openrnd.connection.rest.cache.DiskCacheStorage;
+import pl.openrnd.connection.rest.cache.DiskResponseCache;
+import pl.openrnd.connection.rest.cache.HttpCache;
+import pl.openrnd.connection.rest.cache.MemoryResponseCache;
+import pl.openrnd.connection.rest.cache.ResponseCache;
+import pl.openrnd.connection.rest.cache.SegmentResponseCache;
+import pl.openrnd.connection.rest.cache.TieredResponseCache;
+import pl.openrnd.connection.rest.constant.ConnectionConstants;
+import pl.openrnd.connection.rest.cookie.CookieHeaderInterceptor;
+import pl.openrnd.connection.rest.cookie.CookieStorage;
+import pl.openrnd.connection.rest.cookie.JournalCookiePersistence;
+import pl.openrnd.connection.rest.cookie.MemoryCookiePersistence;
+import pl.openrnd.connection.rest.data.Headers;
+import pl.openrnd.connection.rest.data.HttpHeader;
+import pl.openrnd.connection.rest.data.HttpStatusCode;
+import pl.openrnd.connection.rest.exception.ContentLengthExceededException;
 import pl.openrnd.connection.rest.exception.UnsupportedResponseException;
 import pl.openrnd.connection.rest.request.Request;
 import pl.openrnd.connection.rest.response.Response;
+import pl.openrnd.connection.rest.response.ResponseSource;
+import pl.openrnd.connection.rest.socket.HappyEyeballsConnectionOperator;
+import pl.openrnd.connection.rest.utils.CaptureInputStream;
+import pl.openrnd.connection.rest.utils.LimitedInputStream;
+import pl.openrnd.connection.rest.utils.ProgressInputStream;
+import pl.openrnd.connection.rest.utils.Utils;
 
 /**
  * Class that handles requests.
@@ -58,6 +103,17 @@ public class ConnectionHandler {
 	
 	private static final String TAG = ConnectionHandler.class.getSimpleName(); 
 	private static int mRequestCounter = 0;
+
+    private static final ExecutorService sRefreshExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private int mThreadCounter = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, String.format("CacheRefresh-%d", mThreadCounter++));
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 	
 	private OnRequestConnectionListener mOnRequestConnectionListener;
 	private HttpClient mHttpClient = null;
@@ -66,6 +122,10 @@ public class ConnectionHandler {
 	private ConnectionConfig mConnectionConfig;
 	private PersistentCookieStore mCookieStore;
 	private HttpContext mHttpContext;
+	private HttpCache mHttpCache;
+	private final CookieHeaderInterceptor mCookieHeaderInterceptor = new CookieHeaderInterceptor();
+	private final Set<String> mRefreshedUris = new HashSet<String>();
+	private final Map<String, CountDownLatch> mPrefetches = new HashMap<String, CountDownLatch>();
 	
 	private Object mClientLock = new Object();
 	private Object mCookieLock = new Object();
@@ -85,6 +145,16 @@ public class ConnectionHandler {
 		
 		mConnectionConfig = connectionConfig;
 		mConnectionLogger = new ConnectionLogger(connectionConfig.getInitialLogsState(), connectionConfig.getInitialLogsSize());
+
+		ResponseCache responseCache = createResponseCache();
+		if (responseCache != null) {
+			mHttpCache = new HttpCache(responseCache);
+		}
+
+		// Stored cookies are loaded in the background, so they are ready when the first request is executed
+		if (connectionConfig.isUsingCookies()) {
+			createCookieIfNotSet();
+		}
 	}
 
     /**
@@ -109,14 +179,55 @@ public class ConnectionHandler {
 		return mConnectionLogger;
 	}
 
+    /**
+     * Gets response cache usage statistics.
+     *
+     * @return CacheStatistics object or null if response cache is disabled
+     */
+    public CacheStatistics getCacheStatistics() {
+        return mHttpCache != null ? mHttpCache.getStatistics() : null;
+    }
+
+    /**
+     * Removes all cached responses.
+     */
+    public void clearCache() {
+        if (mHttpCache != null) {
+            mHttpCache.clear();
+        }
+    }
+
+    /**
+     * Writes pending cookie changes to the persistent store synchronously.
+     *
+     * Cookie changes are written in the background shortly after they are made. This method
+     * should be called when the application is about to be closed, in order not to lose
+     * the most recent changes. It should not be called on the main thread.
+     */
+    public void flushCookies() {
+        synchronized (mCookieLock) {
+            if (mCookieStore != null) {
+                mCookieStore.flush();
+            }
+        }
+    }
+
     /**
      * Method for clearing cookies
+     *
+     * Method does not block, it can be called on the main thread. Removal of cookies is written
+     * to the persistent store in the background right away, without the delay used for other
+     * cookie changes, and before stored cookies could be loaded again. The same cookie store
+     * is used by next requests.
      */
 	public void clearCookie() {
 		synchronized (mCookieLock) {
-            mCookieStore.clear();
-			mCookieStore = null;
-			mHttpContext = null;
+			if (hasCookie()) {
+				mCookieStore.clear();
+
+				mHttpContext = new BasicHttpContext();
+				mHttpContext.setAttribute(ClientContext.COOKIE_STORE, mCookieStore);
+			}
 		}
 	}
 
@@ -131,101 +242,637 @@ public class ConnectionHandler {
      * @return Response object
      */
     public Response handleRequest(Request request) {
+        return handleRequest(request, false);
+    }
+
+    private Response handleRequest(Request request, boolean isBackground) {
         Response result = null;
 
-        int requestNumber = mRequestCounter++;
-        Timer timer = null;
+        RequestExecution execution = startExecution(request, isBackground);
+
+        try {
+            openResponse(execution);
+
+            InputStream inputStream = execution.mContent != null ? openBufferedContent(execution) : execution.mInputStream;
+            result = createResponse(execution, inputStream);
+
+            storeResponse(execution, result);
+        } catch (Exception exc) {
+            result = createExceptionResponse(execution, exc);
+        } finally {
+            releaseConnection(execution, result);
+        }
+
+        finishExecution(execution, result);
+
+        return result;
+    }
+
+    /**
+     * Executes network stage of provided request.
+     *
+     * Response entity content is read into a buffer and the connection is released,
+     * so the Response object can be created later, on any thread, by parseResponse().
+     * Content of a response with unsupported status code is read only up to the error content
+     * capture size.
+     *
+     * @param request Request object
+     * @return RequestExecution object to be passed to parseResponse()
+     */
+    RequestExecution fetchResponse(Request request) {
+        RequestExecution execution = startExecution(request, false);
+
+        try {
+            openResponse(execution);
+
+            if ((execution.mContent == null) && (execution.mInputStream != null)) {
+                if (isStatusCodeSupported(request, execution.mStatusCode)) {
+                    readContent(execution);
+                } else {
+                    readErrorContent(execution);
+                }
+            }
+        } catch (Exception exc) {
+            Log.e(TAG, String.format("fetchResponse(%d): ", execution.mRequestNumber), exc);
+
+            onExecutionFailed(execution, exc);
+            execution.mException = exc;
+        } finally {
+            releaseConnection(execution, null);
+        }
+
+        return execution;
+    }
+
+    /**
+     * Executes parse stage of request which network stage was executed by fetchResponse().
+     *
+     * @param execution RequestExecution object returned by fetchResponse()
+     * @return Response object
+     */
+    Response parseResponse(RequestExecution execution) {
+        Response result;
+
+        if (execution.mException != null) {
+            result = execution.mRequest.getResponse(execution.mException);
+        } else {
+            InputStream inputStream = null;
+            if (execution.mContent != null) {
+                inputStream = openBufferedContent(execution);
+            }
+
+            try {
+                result = createResponse(execution, inputStream);
+
+                storeResponse(execution, result);
+            } catch (Exception exc) {
+                result = createExceptionResponse(execution, exc);
+            }
+        }
+
+        finishExecution(execution, result);
+
+        return result;
+    }
+
+    /**
+     * Finishes request which network stage was executed by fetchResponse(), but which response
+     * is not going to be parsed, e.g. because the request was canceled meanwhile.
+     *
+     * @param execution RequestExecution object returned by fetchResponse()
+     */
+    void discardResponse(RequestExecution execution) {
+        finishExecution(execution, null);
+    }
+
+    /**
+     * Gets information if response of provided request can be prefetched into the cache.
+     *
+     * @param request Request object
+     * @return True if response cache is enabled and the request is GET request that supports
+     * content buffering and may use the cache, false otherwise
+     */
+    boolean isPrefetchSupported(Request request) {
+        CachePolicy cachePolicy = request.getCachePolicy();
+        return (mHttpCache != null) && request.supportsContentBuffering() && mHttpCache.isPrefetchable(request.getHttpUriRequest())
+                && ((cachePolicy == null) || cachePolicy.isUsingCache());
+    }
+
+    /**
+     * Executes provided request only to store its response in the cache.
+     *
+     * Response object is not created. Requests for the same resource executed meanwhile wait
+     * until the prefetch finishes and then use the cached response.
+     *
+     * @param request Request object
+     */
+    void prefetchResponse(Request request) {
+        HttpUriRequest httpUriRequest = request.getHttpUriRequest();
+        String key = getPrefetchKey(httpUriRequest);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        synchronized (mPrefetches) {
+            if (mPrefetches.containsKey(key)) {
+                return;
+            }
+            mPrefetches.put(key, latch);
+        }
+
+        RequestExecution execution = startExecution(request, true);
+
+        try {
+            openResponse(execution);
+
+            storeResponse(execution, null);
+        } catch (Exception exc) {
+            Log.e(TAG, String.format("prefetchResponse(%d): ", execution.mRequestNumber), exc);
+
+            onExecutionFailed(execution, exc);
+        } finally {
+            releaseConnection(execution, null);
+
+            synchronized (mPrefetches) {
+                mPrefetches.remove(key);
+            }
+            latch.countDown();
+        }
+
+        finishExecution(execution, null);
+    }
+
+    private void awaitPrefetch(RequestExecution execution) {
+        CountDownLatch latch;
+        synchronized (mPrefetches) {
+            latch = mPrefetches.get(getPrefetchKey(execution.mHttpUriRequest));
+        }
+
+        if (latch != null) {
+            Log.d(TAG, String.format("handleRequest(%d): waiting for prefetch", execution.mRequestNumber));
+
+            Request request = execution.mRequest;
+            long timeout = (request.getConnectionTimeout() != null ? request.getConnectionTimeout() : mConnectionConfig.getConnectionTimeout())
+                    + (request.getReadTimeout() != null ? request.getReadTimeout() : mConnectionConfig.getReadTimeout());
+            try {
+                latch.await(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-        HttpEntity httpEntity = null;
-        InputStream inputStream = null;
+    private static String getPrefetchKey(HttpUriRequest httpUriRequest) {
+        return httpUriRequest.getMethod() + " " + httpUriRequest.getURI();
+    }
+
+    private RequestExecution startExecution(Request request, boolean isBackground) {
         RestConnectionLog.Builder builder = null;
         if (mConnectionLogger.areLogsEnabled()) {
             builder = new RestConnectionLog.Builder();
             builder.request(request);
         }
 
-        Log.d(TAG, String.format("handleRequest(%d): ---> [%s]", requestNumber, request.getClass().getSimpleName()));
+        RequestExecution result = new RequestExecution(request, mRequestCounter++, builder, isBackground);
+
+        Log.d(TAG, String.format("handleRequest(%d): ---> [%s]%s", result.mRequestNumber, request.getClass().getSimpleName(), isBackground ? " background" : ""));
+
+        return result;
+    }
+
+    private void openResponse(RequestExecution execution) throws Exception {
+        Request request = execution.mRequest;
+        int requestNumber = execution.mRequestNumber;
+        RestConnectionLog.Builder builder = execution.mLogBuilder;
+
+        request.onBeforeExecute();
+
+        HttpUriRequest httpUriRequest = request.getHttpUriRequest();
+        execution.mHttpUriRequest = httpUriRequest;
+
+        Log.d(TAG, String.format("handleRequest(%d): uri[%s]", requestNumber, httpUriRequest.getURI().toString()));
+
+        boolean isCacheHit = openCachedResponse(execution);
+
+        logHeaders(requestNumber, httpUriRequest.getAllHeaders());
+
+        if (builder != null) {
+            builder.request(httpUriRequest);
+
+            if (isCacheHit) {
+                builder.response(execution.mCacheEntry);
+            }
+        }
+
+        if (isCacheHit) {
+            return;
+        }
+
+        HttpResponse httpResponse;
+
+        execution.mTimer = startRequestTimer(request);
+        execution.mRequestTime = System.currentTimeMillis();
 
         try {
-            HttpUriRequest httpUriRequest = request.getHttpUriRequest();
+            httpResponse = execute(httpUriRequest, request.getConnectionTimeout(), request.getReadTimeout());
+        } catch (IOException exc) {
+            stopRequestTimer(execution.mTimer);
+
+            if (useStaleIfError(execution, exc.toString())) {
+                if (builder != null) {
+                    builder.response(execution.mCacheEntry);
+                }
+                return;
+            }
+            throw exc;
+        }
 
-            Log.d(TAG, String.format("handleRequest(%d): uri[%s]", requestNumber, httpUriRequest.getURI().toString()));
+        execution.mResponseTime = System.currentTimeMillis();
+        if (builder != null) {
+            builder.response(httpResponse);
+        }
+        stopRequestTimer(execution.mTimer);
 
-            logHeaders(requestNumber, httpUriRequest.getAllHeaders());
+        execution.mStatusCode = httpResponse.getStatusLine().getStatusCode();
+        execution.mReasonPhrase = httpResponse.getStatusLine().getReasonPhrase();
+        execution.mHeaders = httpResponse.getAllHeaders();
 
-            HttpResponse httpResponse;
+        Log.d(TAG, String.format("handleRequest(%d): http response[%d / %s]", requestNumber, execution.mStatusCode, execution.mReasonPhrase));
 
-            timer = startRequestTimer(request);
-            if (builder != null) {
-                builder.request(httpUriRequest);
+        logHeaders(requestNumber, execution.mHeaders);
 
-                httpResponse = execute(httpUriRequest, request.getConnectionTimeout(), request.getReadTimeout());
+        HttpEntity httpEntity = httpResponse.getEntity();
+        execution.mHttpEntity = httpEntity;
 
-                builder.response(httpResponse);
-            } else {
-                httpResponse = execute(httpUriRequest, request.getConnectionTimeout(), request.getReadTimeout());
+        if ((execution.mStatusCode >= HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
+                && useStaleIfError(execution, String.format("http response[%d]", execution.mStatusCode))) {
+            // Error response entity content is consumed when the connection is released
+            return;
+        }
+
+        if ((execution.mCacheEntry != null) && (execution.mStatusCode == HttpStatusCode.REDIRECT_304_NOT_MODIFIED)) {
+            CacheEntry entry = mHttpCache.update(httpUriRequest, execution.mCacheEntry, new Headers(execution.mHeaders),
+                    execution.mRequestTime, execution.mResponseTime);
+
+            Log.d(TAG, String.format("handleRequest(%d): cached response revalidated", requestNumber));
+
+            useCacheEntry(execution, entry, ResponseSource.CONDITIONAL_CACHE);
+            return;
+        }
+
+        long maxContentLength = getMaxContentLength(request);
+        if ((httpEntity != null) && (maxContentLength >= 0) && (httpEntity.getContentLength() > maxContentLength)) {
+            throw new ContentLengthExceededException(maxContentLength, httpEntity.getContentLength());
+        }
+
+        InputStream inputStream = httpEntity != null ? httpEntity.getContent() : null;
+        execution.mInputStream = inputStream;
+        if ((inputStream != null) && (maxContentLength >= 0)) {
+            execution.mLimitedInputStream = new LimitedInputStream(inputStream, maxContentLength);
+            inputStream = execution.mLimitedInputStream;
+        }
+        if (inputStream != null) {
+            inputStream = wrapCaptureStream(execution, inputStream, httpEntity.getContentLength());
+        }
+        execution.mInputStream = wrapContentStream(request, httpEntity, inputStream);
+
+        if (mHttpCache != null) {
+            execution.mResponseHeaders = new Headers(execution.mHeaders);
+            // Response with unsupported status code is not cached, so its content is read only up to the capture size
+            execution.mIsCacheable = request.supportsContentBuffering() && isStatusCodeSupported(request, execution.mStatusCode)
+                    && mHttpCache.isCacheable(httpUriRequest, execution.mStatusCode, execution.mResponseHeaders, request.getCachePolicy());
+
+            if (execution.mIsCacheable) {
+                readContent(execution);
             }
-            stopRequestTimer(timer);
+        }
+    }
 
-            int statusCode = httpResponse.getStatusLine().getStatusCode();
-            String reasonPhrase = httpResponse.getStatusLine().getReasonPhrase();
+    private boolean openCachedResponse(RequestExecution execution) {
+        if ((mHttpCache == null) || !execution.mRequest.supportsContentBuffering()) {
+            return false;
+        }
 
-            Log.d(TAG, String.format("handleRequest(%d): http response[%d / %s]", requestNumber, statusCode, reasonPhrase));
+        if (!execution.mIsBackground) {
+            awaitPrefetch(execution);
+        }
 
-            logHeaders(requestNumber, httpResponse.getAllHeaders());
+        HttpUriRequest httpUriRequest = execution.mHttpUriRequest;
+        CachePolicy cachePolicy = execution.mRequest.getCachePolicy();
+        long now = System.currentTimeMillis();
 
-            httpEntity = httpResponse.getEntity();
-            inputStream = httpEntity.getContent();
+        CacheEntry entry = mHttpCache.lookup(httpUriRequest, cachePolicy);
+        if ((entry != null) && mHttpCache.isFresh(entry, now, cachePolicy)) {
+            Log.d(TAG, String.format("handleRequest(%d): cache hit [%d / %s]", execution.mRequestNumber, entry.getStatusCode(), entry.getReasonPhrase()));
 
-            boolean isStatusCodeSupported = request.supportsAllStatusCodes();
+            if (!execution.mIsBackground) {
+                mHttpCache.onHit();
+            }
+            useCacheEntry(execution, entry, ResponseSource.CACHE);
+            return true;
+        }
 
-            if (!isStatusCodeSupported) {
-                int[] supportedStatusCodes = request.getSupportedStatusCodes();
-                for (int supportedStatusCode : supportedStatusCodes) {
-                    if (statusCode == supportedStatusCode) {
-                        isStatusCodeSupported = true;
-                        break;
-                    }
-                }
+        // Background refresh and prefetch always go to the network and are not counted in statistics
+        if (!execution.mIsBackground) {
+            if ((entry != null) && mHttpCache.isStaleWhileRevalidateAllowed(entry, now, cachePolicy)) {
+                Log.d(TAG, String.format("handleRequest(%d): stale cache hit [%d / %s], refresh needed", execution.mRequestNumber, entry.getStatusCode(), entry.getReasonPhrase()));
+
+                mHttpCache.onStaleHit();
+                useCacheEntry(execution, entry, ResponseSource.STALE_CACHE);
+                execution.mIsRefreshNeeded = true;
+                return true;
             }
 
-            if (isStatusCodeSupported) {
-                result = request.getResponse(statusCode, reasonPhrase, httpResponse.getAllHeaders(), inputStream);
-            } else {
-                throw new UnsupportedResponseException(statusCode, reasonPhrase, httpResponse.getAllHeaders(), inputStream);
+            mHttpCache.onMiss();
+            execution.mStaleEntry = entry;
+        }
+
+        if (entry != null) {
+            execution.mConditionalHeaders = mHttpCache.addConditionalHeaders(httpUriRequest, entry);
+            if (execution.mConditionalHeaders.length > 0) {
+                execution.mCacheEntry = entry;
             }
-        } catch (Exception exc) {
-            Log.e(TAG, String.format("handleRequest(%d): ", requestNumber), exc);
+        }
 
-            stopRequestTimer(timer);
+        return false;
+    }
 
-            result = request.getResponse(exc);
-        } finally {
-            if (httpEntity != null) {
-                try {
-                    httpEntity.consumeContent();
-                } catch (Exception exc) {
-                    Log.e(TAG, String.format("handleRequest(%d): ", requestNumber), exc);
-                }
+    private boolean useStaleIfError(RequestExecution execution, String error) {
+        CacheEntry entry = execution.mStaleEntry;
+        if ((entry == null) || !mHttpCache.isStaleIfErrorAllowed(entry, System.currentTimeMillis(), execution.mRequest.getCachePolicy())) {
+            return false;
+        }
+
+        Log.d(TAG, String.format("handleRequest(%d): %s, stale cache used [%d / %s]", execution.mRequestNumber, error, entry.getStatusCode(), entry.getReasonPhrase()));
+
+        mHttpCache.onStaleIfError();
+        useCacheEntry(execution, entry, ResponseSource.STALE_CACHE);
+        return true;
+    }
+
+    private void useCacheEntry(RequestExecution execution, CacheEntry entry, ResponseSource responseSource) {
+        execution.mCacheEntry = entry;
+        execution.mResponseSource = responseSource;
+        execution.mStatusCode = entry.getStatusCode();
+        execution.mReasonPhrase = entry.getReasonPhrase();
+        execution.mHeaders = entry.getHeaderArray();
+        execution.mResponseHeaders = entry.getHeaders();
+        execution.mContent = entry.getContent();
+        execution.mContentLength = entry.getContent().length;
+    }
+
+    private void readContent(RequestExecution execution) throws IOException {
+        if (execution.mInputStream != null) {
+            ByteArrayBuffer buffer = Utils.readFully(execution.mInputStream, execution.mHttpEntity.getContentLength());
+            execution.mContent = buffer.buffer();
+            execution.mContentLength = buffer.length();
+        } else {
+            execution.mContent = new byte[0];
+            execution.mContentLength = 0;
+        }
+    }
+
+    private void readErrorContent(RequestExecution execution) throws IOException {
+        int captureSize = mConnectionConfig.getErrorContentCaptureSize();
+
+        if (captureSize > 0) {
+            // One byte more than captured is read, so the content is known to be truncated
+            ByteArrayBuffer buffer = Utils.readAtMost(execution.mInputStream, captureSize);
+            execution.mContent = buffer.buffer();
+            execution.mContentLength = buffer.length();
+
+            if (buffer.length() > captureSize) {
+                // Rest of the content is not needed, there is no point in reading it just to reuse the connection
+                execution.mIsContentDiscarded = true;
             }
+        } else {
+            execution.mContent = new byte[0];
+            execution.mContentLength = 0;
+        }
+    }
 
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (Exception exc) {
-                    Log.e(TAG, String.format("handleRequest(%d): ", requestNumber), exc);
+    private InputStream openBufferedContent(RequestExecution execution) {
+        InputStream result = new ByteArrayInputStream(execution.mContent, 0, execution.mContentLength);
+
+        if (execution.mCaptureInputStream == null) {
+            // Content taken from the cache was not captured while reading it from the network
+            result = wrapCaptureStream(execution, result, execution.mContentLength);
+        }
+
+        return result;
+    }
+
+    private InputStream wrapCaptureStream(RequestExecution execution, InputStream inputStream, long contentLength) {
+        InputStream result = inputStream;
+
+        if ((execution.mLogBuilder != null) && (mConnectionConfig.getLogsContentCaptureSize() > 0)) {
+            execution.mCaptureInputStream = new CaptureInputStream(inputStream, mConnectionConfig.getLogsContentCaptureSize(), contentLength);
+            result = execution.mCaptureInputStream;
+
+            Headers headers = execution.mResponseHeaders != null ? execution.mResponseHeaders : new Headers(execution.mHeaders);
+            execution.mContentCharset = Utils.getContentCharset(headers.getValue(HttpHeader.CONTENT_TYPE));
+        }
+
+        return result;
+    }
+
+    private void storeResponse(RequestExecution execution, Response response) {
+        if (response != null) {
+            response.setResponseSource(execution.mResponseSource);
+        }
+
+        if ((mHttpCache == null) || (execution.mResponseSource != ResponseSource.NETWORK)) {
+            return;
+        }
+
+        HttpUriRequest httpUriRequest = execution.mHttpUriRequest;
+        if (execution.mIsCacheable) {
+            // Response object is not created for prefetched requests
+            if ((response == null) || (!response.hasException() && !response.isContentDiscarded())) {
+                mHttpCache.put(httpUriRequest, execution.mStatusCode, execution.mReasonPhrase, execution.mResponseHeaders,
+                        Arrays.copyOf(execution.mContent, execution.mContentLength), execution.mRequestTime, execution.mResponseTime);
+            }
+        } else if (!mHttpCache.isSafeMethod(httpUriRequest) && (execution.mStatusCode < HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST)) {
+            mHttpCache.invalidate(httpUriRequest);
+        }
+    }
+
+    private Response createResponse(RequestExecution execution, InputStream inputStream) throws Exception {
+        Request request = execution.mRequest;
+        int statusCode = execution.mStatusCode;
+
+        Response result = null;
+        UnsupportedResponseException unsupportedResponseException = null;
+        if (isStatusCodeSupported(request, statusCode)) {
+            result = request.getResponse(statusCode, execution.mReasonPhrase, execution.mHeaders, inputStream);
+        } else {
+            unsupportedResponseException = createUnsupportedResponseException(execution, inputStream);
+        }
+
+        // Content length exception might have been swallowed while handling the content
+        LimitedInputStream limitedInputStream = execution.mLimitedInputStream;
+        if ((limitedInputStream != null) && (limitedInputStream.getException() != null)) {
+            throw limitedInputStream.getException();
+        }
+
+        if (unsupportedResponseException != null) {
+            throw unsupportedResponseException;
+        }
+
+        return result;
+    }
+
+    private static boolean isStatusCodeSupported(Request request, int statusCode) {
+        boolean result = request.supportsAllStatusCodes();
+
+        if (!result) {
+            int[] supportedStatusCodes = request.getSupportedStatusCodes();
+            for (int supportedStatusCode : supportedStatusCodes) {
+                if (statusCode == supportedStatusCode) {
+                    result = true;
+                    break;
                 }
             }
         }
 
+        return result;
+    }
+
+    private UnsupportedResponseException createUnsupportedResponseException(RequestExecution execution, InputStream inputStream) throws IOException {
+        int captureSize = mConnectionConfig.getErrorContentCaptureSize();
+
+        UnsupportedResponseException result;
+        if ((inputStream != null) && (captureSize > 0)) {
+            ByteArrayBuffer buffer = Utils.readAtMost(inputStream, captureSize);
+            result = UnsupportedResponseException.create(execution.mStatusCode, execution.mReasonPhrase, execution.mHeaders, buffer, captureSize);
+        } else {
+            result = new UnsupportedResponseException(execution.mStatusCode, execution.mReasonPhrase, execution.mHeaders, null,
+                    (inputStream != null) && (execution.mHttpEntity.getContentLength() != 0));
+        }
+
+        if (result.isContentTruncated()) {
+            // Rest of the content is not needed, there is no point in reading it just to reuse the connection
+            execution.mIsContentDiscarded = true;
+        }
+
+        return result;
+    }
+
+    private Response createExceptionResponse(RequestExecution execution, Exception exc) {
+        Log.e(TAG, String.format("handleRequest(%d): ", execution.mRequestNumber), exc);
+
+        onExecutionFailed(execution, exc);
+
+        return execution.mRequest.getResponse(exc);
+    }
+
+    private void onExecutionFailed(RequestExecution execution, Exception exc) {
+        stopRequestTimer(execution.mTimer);
+
+        if (exc instanceof ContentLengthExceededException) {
+            execution.mIsContentDiscarded = true;
+        }
+    }
+
+    private void releaseConnection(RequestExecution execution, Response response) {
+        int requestNumber = execution.mRequestNumber;
+        boolean isContentDiscarded = execution.mIsContentDiscarded || ((response != null) && response.isContentDiscarded());
+
+        if (isContentDiscarded && (execution.mHttpUriRequest != null)) {
+            Log.d(TAG, String.format("handleRequest(%d): content discarded, aborting connection", requestNumber));
+
+            try {
+                execution.mHttpUriRequest.abort();
+            } catch (Exception exc) {
+                Log.e(TAG, String.format("handleRequest(%d): ", requestNumber), exc);
+            }
+        } else if (execution.mHttpEntity != null) {
+            try {
+                execution.mHttpEntity.consumeContent();
+            } catch (Exception exc) {
+                Log.e(TAG, String.format("handleRequest(%d): ", requestNumber), exc);
+            }
+        }
+
+        if (execution.mInputStream != null) {
+            try {
+                execution.mInputStream.close();
+            } catch (Exception exc) {
+                Log.e(TAG, String.format("handleRequest(%d): ", requestNumber), exc);
+            }
+        }
+    }
+
+    private void finishExecution(RequestExecution execution, Response response) {
+        if (execution.mConditionalHeaders != null) {
+            // Validators are valid only for this execution
+            for (Header header : execution.mConditionalHeaders) {
+                execution.mHttpUriRequest.removeHeader(header);
+            }
+        }
+
+        RestConnectionLog.Builder builder = execution.mLogBuilder;
         if (builder != null) {
             builder.cookies(mCookieStore);
-            builder.response(result);
+            if (response != null) {
+                builder.response(response);
+            }
+            builder.responseContent(execution.mCaptureInputStream, execution.mContentCharset);
 
             mConnectionLogger.addConnectionLog(builder.build());
         }
 
-        Log.d(TAG, String.format("handleRequest(%d): <---", requestNumber));
+        Log.d(TAG, String.format("handleRequest(%d): <---", execution.mRequestNumber));
+
+        if (execution.mIsRefreshNeeded) {
+            scheduleRefresh(execution.mRequest);
+        }
+    }
+
+    private void scheduleRefresh(final Request request) {
+        final String uri = request.getHttpUriRequest().getURI().toString();
+
+        synchronized (mRefreshedUris) {
+            if (request.isCanceled() || !mRefreshedUris.add(uri)) {
+                // Refresh of the same resource is already running
+                return;
+            }
+        }
+
+        sRefreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Response response;
+                try {
+                    response = handleRequest(request, true);
+                } finally {
+                    synchronized (mRefreshedUris) {
+                        mRefreshedUris.remove(uri);
+                    }
+                }
+
+                OnRequestRefreshListener listener = request.getRefreshListener();
+                if ((listener != null) && !request.isCanceled()) {
+                    listener.onRequestRefreshed(request, response);
+                }
+            }
+        });
+    }
+
+    private long getMaxContentLength(Request request) {
+        Long result = request.getMaxContentLength();
+        return result != null ? result : mConnectionConfig.getMaxContentLength();
+    }
+
+    private InputStream wrapContentStream(Request request, HttpEntity httpEntity, InputStream inputStream) {
+        InputStream result = inputStream;
+
+        OnProgressListener progressListener = request.getProgressListener();
+        if (mConnectionLogger.areLogsEnabled() && mConnectionLogger.hasTransferProgressListeners()) {
+            progressListener = new LoggingProgressListener(progressListener);
+        }
+
+        if ((result != null) && (progressListener != null)) {
+            result = new ProgressInputStream(result, httpEntity.getContentLength(), request, progressListener);
+        }
 
         return result;
     }
@@ -233,7 +880,8 @@ public class ConnectionHandler {
 	private void createCookieIfNotSet() {
 		synchronized (mCookieLock) {
 			if (!hasCookie()) {
-				mCookieStore = new PersistentCookieStore(mApplicationContext);
+				mCookieStore = new PersistentCookieStore(createCookiePersistence());
+				mCookieStore.setMaxCookieCount(mConnectionConfig.getMaxCookieCount());
 				mHttpContext = new BasicHttpContext();
 				mHttpContext.setAttribute(ClientContext.COOKIE_STORE, mCookieStore);
 			}
@@ -260,18 +908,75 @@ public class ConnectionHandler {
 				HttpConnectionParams.setSoTimeout(httpParameters, mConnectionConfig.getReadTimeout());
 				HttpClientParams.setRedirecting(httpParameters, false);
 
-                if (mConnectionConfig.getSchemeRegistry() != null) {
-                    ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(httpParameters, mConnectionConfig.getSchemeRegistry());
-                    mHttpClient = new DefaultHttpClient(connectionManager, httpParameters);
+                SchemeRegistry schemeRegistry = mConnectionConfig.getSchemeRegistry();
+
+                DefaultHttpClient httpClient;
+                if (mConnectionConfig.isDualStackRacing()) {
+                    if (schemeRegistry == null) {
+                        schemeRegistry = createDefaultSchemeRegistry();
+                    }
+                    ClientConnectionManager connectionManager = HappyEyeballsConnectionOperator.createConnectionManager(
+                            httpParameters, schemeRegistry, mConnectionConfig.getConnectionAttemptDelay());
+                    httpClient = new DefaultHttpClient(connectionManager, httpParameters);
+                } else if (schemeRegistry != null) {
+                    ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(httpParameters, schemeRegistry);
+                    httpClient = new DefaultHttpClient(connectionManager, httpParameters);
                 } else {
-                    mHttpClient = new DefaultHttpClient(httpParameters);
+                    httpClient = new DefaultHttpClient(httpParameters);
                 }
+
+                // Cookies are matched using the domain index of the cookie store
+                httpClient.removeRequestInterceptorByClass(RequestAddCookies.class);
+                httpClient.addRequestInterceptor(mCookieHeaderInterceptor);
+                mHttpClient = httpClient;
 			}
 			
 			return mHttpClient;
 		}
 	}
 
+    private CookiePersistence createCookiePersistence() {
+        CookieStorage cookieStorage = mConnectionConfig.getCookieStorage();
+        if (cookieStorage == CookieStorage.MEMORY) {
+            return new MemoryCookiePersistence();
+        } else if (cookieStorage == CookieStorage.JOURNAL) {
+            return new JournalCookiePersistence(new File(mApplicationContext.getFilesDir(), ConnectionConstants.COOKIE_JOURNAL_FILE));
+        } else {
+            return new SharedPreferencesCookiePersistence(mApplicationContext);
+        }
+    }
+
+    private ResponseCache createResponseCache() {
+        ResponseCache memoryCache = null;
+        if (mConnectionConfig.getMemoryCacheSize() > 0) {
+            memoryCache = new MemoryResponseCache(mConnectionConfig.getMemoryCacheSize());
+        }
+
+        ResponseCache diskCache = null;
+        if (mConnectionConfig.getDiskCacheSize() > 0) {
+            if (mConnectionConfig.getDiskCacheStorage() == DiskCacheStorage.SEGMENTS) {
+                File directory = new File(mApplicationContext.getCacheDir(), ConnectionConstants.SEGMENT_CACHE_DIRECTORY);
+                diskCache = new SegmentResponseCache(directory, mConnectionConfig.getDiskCacheSize());
+            } else {
+                File directory = new File(mApplicationContext.getCacheDir(), ConnectionConstants.DISK_CACHE_DIRECTORY);
+                diskCache = new DiskResponseCache(directory, mConnectionConfig.getDiskCacheSize());
+            }
+        }
+
+        if ((memoryCache != null) && (diskCache != null)) {
+            return new TieredResponseCache(memoryCache, diskCache);
+        } else {
+            return memoryCache != null ? memoryCache : diskCache;
+        }
+    }
+
+    private SchemeRegistry createDefaultSchemeRegistry() {
+        SchemeRegistry result = new SchemeRegistry();
+        result.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        result.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+        return result;
+    }
+
     private void notifyTakingTooLong(final Request request) {
         Handler handler = new Handler(Looper.getMainLooper());
         handler.post(new Runnable() {
@@ -348,4 +1053,21 @@ public class ConnectionHandler {
 			}
 		}
 	}
+
+    private class LoggingProgressListener implements OnProgressListener {
+        private final OnProgressListener mRequestProgressListener;
+
+        LoggingProgressListener(OnProgressListener requestProgressListener) {
+            mRequestProgressListener = requestProgressListener;
+        }
+
+        @Override
+        public void onProgress(Request request, long bytesRead, long contentLength) {
+            if (mRequestProgressListener != null) {
+                mRequestProgressListener.onProgress(request, bytesRead, contentLength);
+            }
+
+            mConnectionLogger.notifyTransferProgress(request, bytesRead, contentLength);
+        }
+    }
 }
@@ -21,11 +21,18 @@ package pl.openrnd.connection.rest;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+import pl.openrnd.connection.rest.cache.CacheStatistics;
 import pl.openrnd.connection.rest.request.Request;
 import pl.openrnd.connection.rest.response.Response;
 import pl.openrnd.connection.rest.utils.ObjectListenerHandler;
@@ -40,10 +47,17 @@ public class ConnectionHandlerAsync {
 	private ObjectListenerHandler<OnRequestResultListener> mGlobalRequestResultListeners;
 	private LinkedList<RequestDataHolder> mRequestDataHolders;
 	private ReentrantLock mRequestDataHoldersLock;
+	private Condition mIdleCondition;
+	private int mActiveRequestCount;
+	private LinkedList<Request> mPrefetchRequests;
+	private PrefetchThread mPrefetchThread;
 	private ConnectionHandler mConnectionHandler;
 	private RequestsHandlerThread mRequestsHandlerThread;
 	private Handler mUiHandler;
 	private ConnectionConfig mConnectionConfig;
+	private ExecutorService mParseExecutor;
+	private StageMetrics mNetworkStageMetrics;
+	private StageMetrics mParseStageMetrics;
 
     /**
      * Class constructor
@@ -58,7 +72,15 @@ public class ConnectionHandlerAsync {
 		mConnectionHandler = new ConnectionHandler(context, connectionConfig);
 		mRequestDataHolders = new LinkedList<RequestDataHolder>();
 		mRequestDataHoldersLock = new ReentrantLock();
+		mIdleCondition = mRequestDataHoldersLock.newCondition();
+		mPrefetchRequests = new LinkedList<Request>();
         mUiHandler = new Handler(Looper.getMainLooper());
+
+        mNetworkStageMetrics = new StageMetrics();
+        mParseStageMetrics = new StageMetrics();
+        if (connectionConfig.getParseThreadPoolSize() > 0) {
+            mParseExecutor = Executors.newFixedThreadPool(connectionConfig.getParseThreadPoolSize(), new ParseThreadFactory());
+        }
 	}
 
     /**
@@ -74,11 +96,61 @@ public class ConnectionHandlerAsync {
 
     /**
      * Method for clearing cookies
+     *
+     * Method does not block. Removal of cookies is written to the persistent store in the background right away.
      */
 	public void clearCookie() {
 		mConnectionHandler.clearCookie();
 	}
 
+    /**
+     * Writes pending cookie changes to the persistent store synchronously.
+     *
+     * @see ConnectionHandler#flushCookies()
+     */
+    public void flushCookies() {
+        mConnectionHandler.flushCookies();
+    }
+
+    /**
+     * Gets response cache usage statistics.
+     *
+     * @return CacheStatistics object or null if response cache is disabled
+     */
+    public CacheStatistics getCacheStatistics() {
+        return mConnectionHandler.getCacheStatistics();
+    }
+
+    /**
+     * Removes all cached responses.
+     */
+    public void clearCache() {
+        mConnectionHandler.clearCache();
+    }
+
+    /**
+     * Gets queue metrics of network stage, i.e. requests executing and reading
+     * response entity content.
+     *
+     * @return StageMetrics object.
+     */
+    public StageMetrics getNetworkStageMetrics() {
+        return mNetworkStageMetrics;
+    }
+
+    /**
+     * Gets queue metrics of parse stage, i.e. creating response objects on parse threads.
+     *
+     * The stage is used only when parse threads are configured.
+     *
+     * @see pl.openrnd.connection.rest.ConnectionConfig.Builder#parseThreadPoolSize(int)
+     *
+     * @return StageMetrics object.
+     */
+    public StageMetrics getParseStageMetrics() {
+        return mParseStageMetrics;
+    }
+
     /**
      * Registers global OnRequestResultListener object.
      *
@@ -150,6 +222,8 @@ public class ConnectionHandlerAsync {
 		if (request != null) {
 			mRequestDataHoldersLock.lock();
 			mRequestDataHolders.addLast(new RequestDataHolder(request, requestResultListener));
+			mNetworkStageMetrics.onQueued();
+			removePrefetchRequest(request);
 			mRequestDataHoldersLock.unlock();
 			
 			if (mConnectionConfig.isFullAsync()) {
@@ -164,6 +238,64 @@ public class ConnectionHandlerAsync {
 		}
 	}
 
+    /**
+     * Adds request to the prefetch queue in order to store its response in the cache in advance.
+     *
+     * Prefetch requests are executed one by one on a lowest priority thread and only when there
+     * are no other requests queued or executed. Response object is not created and no listener
+     * is notified, the response is only stored in the cache. Request for the same resource added
+     * later is served from the cache or, if the prefetch is still executed, waits for it to finish.
+     *
+     * Queued prefetch request is dropped when request for the same resource is added with
+     * addRequest().
+     *
+     * @param request Request object to be prefetched. It should not be used for other purposes.
+     * @return True if request was queued, false if response cache is disabled or the request
+     * can not be cached (e.g. it is not GET request).
+     */
+	public boolean prefetch(Request request) {
+		if ((request == null) || !mConnectionHandler.isPrefetchSupported(request)) {
+			Log.d(TAG, "prefetch(): request not supported");
+			return false;
+		}
+
+		mRequestDataHoldersLock.lock();
+		try {
+			mPrefetchRequests.addLast(request);
+
+			if (mPrefetchThread == null) {
+				mPrefetchThread = new PrefetchThread();
+				mPrefetchThread.start();
+			}
+		} finally {
+			mRequestDataHoldersLock.unlock();
+		}
+		return true;
+	}
+
+	private void removePrefetchRequest(Request request) {
+		String uri = request.getHttpUriRequest().getURI().toString();
+		String method = request.getHttpUriRequest().getMethod();
+
+		Iterator<Request> iterator = mPrefetchRequests.iterator();
+		while (iterator.hasNext()) {
+			Request prefetchRequest = iterator.next();
+			if (method.equals(prefetchRequest.getHttpUriRequest().getMethod())
+					&& uri.equals(prefetchRequest.getHttpUriRequest().getURI().toString())) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private void onRequestFinished() {
+		mRequestDataHoldersLock.lock();
+		--mActiveRequestCount;
+		if ((mActiveRequestCount == 0) && mRequestDataHolders.isEmpty()) {
+			mIdleCondition.signalAll();
+		}
+		mRequestDataHoldersLock.unlock();
+	}
+
     /**
      * Cancels all requests execution.
      *
@@ -177,10 +309,18 @@ public class ConnectionHandlerAsync {
 		mRequestDataHoldersLock.lock();
 		
 		LinkedList<RequestDataHolder> requestDataHolders = new LinkedList<ConnectionHandlerAsync.RequestDataHolder>(mRequestDataHolders);
+		LinkedList<Request> prefetchRequests = new LinkedList<Request>(mPrefetchRequests);
 		
 		mRequestDataHolders.clear();
+		mPrefetchRequests.clear();
+		mNetworkStageMetrics.onDequeued(requestDataHolders.size());
+		mIdleCondition.signalAll();
 		
 		mRequestDataHoldersLock.unlock();
+
+		for (Request request : prefetchRequests) {
+			request.cancel();
+		}
 		
 		for (RequestDataHolder requestDataHolder : requestDataHolders) {
 			Request request = requestDataHolder.getRequest();
@@ -200,16 +340,31 @@ public class ConnectionHandlerAsync {
 				
 				if (!mRequestDataHolders.isEmpty()) {
 					RequestDataHolder requestDataHolder = mRequestDataHolders.removeFirst();
+					++mActiveRequestCount;
 					mRequestDataHoldersLock.unlock();
 					
 					Request request = requestDataHolder.getRequest();
 					OnRequestResultListener requestResultListener = requestDataHolder.getRequestResultListener();
 
-                    Response response = null;
-					if (!request.isCanceled()) {
-                        response = mConnectionHandler.handleRequest(request);
+                    long startTime = SystemClock.elapsedRealtime();
+                    mNetworkStageMetrics.onStarted(startTime - requestDataHolder.getQueuedTime());
+
+                    if (!request.isCanceled() && (mParseExecutor != null) && request.supportsContentBuffering()) {
+                        RequestExecution execution = mConnectionHandler.fetchResponse(request);
+                        mNetworkStageMetrics.onFinished(SystemClock.elapsedRealtime() - startTime);
+                        onRequestFinished();
+
+                        parseResponse(execution, requestResultListener);
+                    } else {
+                        Response response = null;
+                        if (!request.isCanceled()) {
+                            response = mConnectionHandler.handleRequest(request);
+                        }
+                        mNetworkStageMetrics.onFinished(SystemClock.elapsedRealtime() - startTime);
+                        onRequestFinished();
+
+                        notifyResponse(request, response, requestResultListener);
                     }
-                    notifyResponse(request, response, requestResultListener);
 				} else {
 					mRequestDataHoldersLock.unlock();
 				}
@@ -217,6 +372,42 @@ public class ConnectionHandlerAsync {
 		};
 	}
 	
+	private void parseResponse(final RequestExecution execution, final OnRequestResultListener requestResultListener) {
+		final long queuedTime = SystemClock.elapsedRealtime();
+		mParseStageMetrics.onQueued();
+
+		mParseExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				long startTime = SystemClock.elapsedRealtime();
+				mParseStageMetrics.onStarted(startTime - queuedTime);
+
+				Request request = execution.getRequest();
+
+				Response response = null;
+				if (!request.isCanceled()) {
+					response = mConnectionHandler.parseResponse(execution);
+				} else {
+					mConnectionHandler.discardResponse(execution);
+				}
+				mParseStageMetrics.onFinished(SystemClock.elapsedRealtime() - startTime);
+
+				notifyResponse(request, response, requestResultListener);
+			}
+		});
+	}
+
+	private static class ParseThreadFactory implements ThreadFactory {
+		private int mThreadCounter = 0;
+
+		@Override
+		public synchronized Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, String.format("ConnectionHandlerParse-%d", mThreadCounter++));
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
 	private class RequestsHandlerThread extends Thread {
 		private boolean mIsFinished;
 		
@@ -243,13 +434,54 @@ public class ConnectionHandlerAsync {
 		}
 	}
 	
+	private class PrefetchThread extends Thread {
+
+		public PrefetchThread() {
+			super("ConnectionHandlerPrefetch");
+			setPriority(Thread.MIN_PRIORITY);
+			setDaemon(true);
+		}
+
+		public void run() {
+			while (true) {
+				Request request;
+
+				mRequestDataHoldersLock.lock();
+				try {
+					// Prefetching starts only when there is no other network activity
+					while (!mPrefetchRequests.isEmpty() && (!mRequestDataHolders.isEmpty() || (mActiveRequestCount > 0))) {
+						mIdleCondition.awaitUninterruptibly();
+					}
+
+					if (mPrefetchRequests.isEmpty()) {
+						mPrefetchThread = null;
+						return;
+					}
+					request = mPrefetchRequests.removeFirst();
+				} finally {
+					mRequestDataHoldersLock.unlock();
+				}
+
+				if (!request.isCanceled()) {
+					mConnectionHandler.prefetchResponse(request);
+				}
+			}
+		}
+	}
+	
 	private class RequestDataHolder {
 		private Request mRequest;
 		private OnRequestResultListener mRequestResultListener;
+		private long mQueuedTime;
 		
 		public RequestDataHolder(Request request, OnRequestResultListener requestResultListener) {
 			mRequest = request;
 			mRequestResultListener = requestResultListener;
+			mQueuedTime = SystemClock.elapsedRealtime();
+		}
+
+		public long getQueuedTime() {
+			return mQueuedTime;
 		}
 		
 		public Request getRequest() {
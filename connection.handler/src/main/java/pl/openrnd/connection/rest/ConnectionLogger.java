@@ -18,23 +18,56 @@
 
 package pl.openrnd.connection.rest;
 
+import android.os.Handler;
+import android.os.Looper;
+
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import pl.openrnd.connection.rest.constant.ConnectionConstants;
+import pl.openrnd.connection.rest.request.Request;
+import pl.openrnd.connection.rest.utils.ObjectListenerHandler;
 
 /**
  * Connection logger class
+ *
+ * Logs are kept in a fixed-capacity ring buffer. Adding a log does not take any lock: the slot
+ * is reserved with an atomic increment of the sequence number and the log is stored in it, older
+ * logs are overwritten when the buffer is full. Taking logs copies the buffer without blocking
+ * writers, a log that is being added at the same time may be omitted.
+ *
+ * Changing the max queue size or clearing logs replaces the ring buffer. The old buffer is sealed
+ * first, so logs that are being added at the same time are moved to the new one.
+ *
+ * Queue change notifications are coalesced: listeners are notified on the main thread once
+ * per NOTIFICATION_DELAY milliseconds (about one frame) about all changes made in that time.
  */
 public class ConnectionLogger {
+	private static final Entry SEALED = new Entry(-1, null);
+	private static final long NOTIFICATION_DELAY = 16;
+
 	private int mMaxQueueSize;
 	
 	private List<WeakReference<OnLogQueueChangeListener>> mQueueChangeListeners;
-	private LinkedList<ConnectionLog> mLogQueue;
-	private boolean mAreLogsEnabled;
+	private volatile Ring mRing;
+	private volatile boolean mAreLogsEnabled;
+	private ObjectListenerHandler<OnTransferProgressListener> mTransferProgressListeners;
+
+	private final Handler mNotificationHandler = new Handler(Looper.getMainLooper());
+	private final AtomicBoolean mIsNotificationScheduled = new AtomicBoolean();
+	private final Runnable mNotificationRunnable = new Runnable() {
+		@Override
+		public void run() {
+			// Changes made from now on are notified in the next batch
+			mIsNotificationScheduled.set(false);
+			dispatchNotification();
+		}
+	};
 
     /**
      * Class constructor with default initialization.
@@ -43,8 +76,9 @@ public class ConnectionLogger {
         mAreLogsEnabled = ConnectionConstants.DEFAULT_LOG_STATE;
         mMaxQueueSize = ConnectionConstants.DEFAULT_LOG_SIZE;
 
-        mQueueChangeListeners = new ArrayList<WeakReference<OnLogQueueChangeListener>>();
-        mLogQueue = new LinkedList<ConnectionLog>();
+        mQueueChangeListeners = new CopyOnWriteArrayList<WeakReference<OnLogQueueChangeListener>>();
+        mRing = new Ring(mMaxQueueSize);
+        mTransferProgressListeners = new ObjectListenerHandler<OnTransferProgressListener>();
     }
 
     /**
@@ -57,8 +91,9 @@ public class ConnectionLogger {
 		mAreLogsEnabled = logsEnabled;
         mMaxQueueSize = maxQueueSize;
 
-        mQueueChangeListeners = new ArrayList<WeakReference<OnLogQueueChangeListener>>();
-        mLogQueue = new LinkedList<ConnectionLog>();
+        mQueueChangeListeners = new CopyOnWriteArrayList<WeakReference<OnLogQueueChangeListener>>();
+        mRing = new Ring(mMaxQueueSize);
+        mTransferProgressListeners = new ObjectListenerHandler<OnTransferProgressListener>();
 	}
 
     /**
@@ -83,7 +118,7 @@ public class ConnectionLogger {
      *
      * @return Logs state.  True if logs are enabled, false otherwise.
      */
-	public synchronized boolean areLogsEnabled() {
+	public boolean areLogsEnabled() {
 		return mAreLogsEnabled;
 	}
 
@@ -101,16 +136,16 @@ public class ConnectionLogger {
      *
      * @return Current logs queue size.
      */
-	public synchronized int getQueueSize() {
-		return mLogQueue.size();
+	public int getQueueSize() {
+		Ring ring = getRing();
+		return (int)Math.min(Math.max(ring.mHead.get(), 0), ring.mCapacity);
 	}
 
     /**
      * Clears logs.
      */
 	public synchronized void clearLogs() {
-		boolean notifyChange = mLogQueue.size() > 0;
-		mLogQueue.clear();
+		boolean notifyChange = replaceRing(mMaxQueueSize, false) > 0;
 		
 		if (notifyChange) {
 			notifyListeners();
@@ -125,7 +160,7 @@ public class ConnectionLogger {
 	public synchronized void setQueueMaxSize(int queueMaxSize) {
 		mMaxQueueSize = queueMaxSize;
 		
-		if (validateSize()) {
+		if (replaceRing(queueMaxSize, true) > 0) {
 			notifyListeners();
 		}
 	}
@@ -133,47 +168,130 @@ public class ConnectionLogger {
     /**
      * Adds new connection log.
      *
-     * New log notification is performed in a caller thread.
+     * New log notification is performed on the main thread, together with other changes made
+     * within NOTIFICATION_DELAY milliseconds.
      *
      * @param connectionLog ConnectionLog object with log data.
      */
-	public synchronized void addConnectionLog(ConnectionLog connectionLog) {
+	public void addConnectionLog(ConnectionLog connectionLog) {
 		if (mAreLogsEnabled) {
-			mLogQueue.addLast(connectionLog);
-			validateSize();
+			append(connectionLog);
 			notifyListeners();
 		}
 	}
 
     /**
      * Gets list of connection logs.
+     *
+     * Logs are copied from the ring buffer without blocking threads that add logs.
      */
-	public synchronized List<ConnectionLog> getConnectionLogs() {
-		return new ArrayList<ConnectionLog>(mLogQueue);
-	}
-	
-	private synchronized boolean validateSize() {
-		boolean result = false;
-		
-		int delta = getQueueSize() - getQueueMaxSize();
-		if (delta > 0) {
-			result = true;
-			
-			for (int i = 0; i < delta; ++i) {
-				mLogQueue.removeFirst();
+	public List<ConnectionLog> getConnectionLogs() {
+		Ring ring;
+		long end;
+		do {
+			// Ring may be sealed in the meantime
+			ring = getRing();
+			end = ring.mHead.get();
+		} while (end < 0);
+
+		long start = Math.max(end - ring.mCapacity, 0);
+		List<ConnectionLog> result = new ArrayList<ConnectionLog>((int)(end - start));
+		for (long sequence = start; sequence < end; ++sequence) {
+			Entry entry = ring.mSlots.get(ring.getIndex(sequence));
+
+			// Logs that are not stored yet or were already overwritten are omitted
+			if ((entry != null) && (entry.mSequence == sequence)) {
+				result.add(entry.mLog);
 			}
 		}
-		
 		return result;
 	}
+
+	private void append(ConnectionLog connectionLog) {
+		while (true) {
+			Ring ring = getRing();
+			long sequence = ring.mHead.get();
+			if ((sequence < 0) || !ring.mHead.compareAndSet(sequence, sequence + 1)) {
+				continue;
+			}
+
+			if (ring.mCapacity == 0) {
+				return;
+			}
+
+			int index = ring.getIndex(sequence);
+			Entry entry = new Entry(sequence, connectionLog);
+			Entry previous = ring.mSlots.get(index);
+			while (previous != SEALED) {
+				if ((previous != null) && (previous.mSequence > sequence)) {
+					// Writer was lapped by newer logs, so its log is already out of the queue
+					return;
+				}
+
+				// Slot is replaced only if it did not change since it was read, so a newer log is never overwritten
+				if (ring.mSlots.compareAndSet(index, previous, entry)) {
+					return;
+				}
+				previous = ring.mSlots.get(index);
+			}
+
+			// Ring was replaced before the log was stored, it is added to the new one
+		}
+	}
+
+	private Ring getRing() {
+		Ring ring = mRing;
+		while (ring.mHead.get() < 0) {
+			// Ring is being replaced, the new one is published shortly
+			Thread.yield();
+			ring = mRing;
+		}
+		return ring;
+	}
+
+	/**
+	 * Replaces the ring buffer with a new one of the given capacity.
+	 *
+	 * @return Number of logs dropped from the queue
+	 */
+	private int replaceRing(int capacity, boolean keepLogs) {
+		Ring ring = mRing;
+		long end = ring.mHead.getAndSet(-1);
+
+		List<ConnectionLog> logs = new ArrayList<ConnectionLog>();
+		for (long sequence = Math.max(end - ring.mCapacity, 0); sequence < end; ++sequence) {
+			Entry entry = ring.mSlots.getAndSet(ring.getIndex(sequence), SEALED);
+			if ((entry != null) && (entry.mSequence == sequence)) {
+				logs.add(entry.mLog);
+			}
+		}
+
+		Ring newRing = new Ring(capacity);
+		int dropped = logs.size();
+		if (keepLogs) {
+			int start = Math.max(logs.size() - newRing.mCapacity, 0);
+			for (int i = start; i < logs.size(); ++i) {
+				newRing.mSlots.set(i - start, new Entry(i - start, logs.get(i)));
+			}
+			newRing.mHead.set(logs.size() - start);
+			dropped = start;
+		}
+
+		mRing = newRing;
+		return dropped;
+	}
 	
-	private synchronized void notifyListeners() {
-		Iterator<WeakReference<OnLogQueueChangeListener>> iterator = mQueueChangeListeners.iterator();
-		
-		while (iterator.hasNext()) {
-			OnLogQueueChangeListener listener = iterator.next().get();
+	private void notifyListeners() {
+		if (mIsNotificationScheduled.compareAndSet(false, true)) {
+			mNotificationHandler.postDelayed(mNotificationRunnable, NOTIFICATION_DELAY);
+		}
+	}
+
+	private void dispatchNotification() {
+		for (WeakReference<OnLogQueueChangeListener> reference : mQueueChangeListeners) {
+			OnLogQueueChangeListener listener = reference.get();
 			if (listener == null) {
-				iterator.remove();
+				mQueueChangeListeners.remove(reference);
 			} else {
 				listener.onQueueSizeChanged(this);
 			}
@@ -189,12 +307,10 @@ public class ConnectionLogger {
      * @param changeListener
      */
 	public synchronized void registerOnLogQueueChangeListener(OnLogQueueChangeListener changeListener) {
-		Iterator<WeakReference<OnLogQueueChangeListener>> iterator = mQueueChangeListeners.iterator();
-		
-		while (iterator.hasNext()) {
-			OnLogQueueChangeListener listener = iterator.next().get();
+		for (WeakReference<OnLogQueueChangeListener> reference : mQueueChangeListeners) {
+			OnLogQueueChangeListener listener = reference.get();
 			if (listener == null) {
-				iterator.remove();
+				mQueueChangeListeners.remove(reference);
 			} else if (listener == changeListener) {
 				return;
 			}
@@ -209,18 +325,72 @@ public class ConnectionLogger {
      * @param changeListener OnLogQueueChangeListener object.
      */
 	public synchronized void unregisterOnLogChangeListener(OnLogQueueChangeListener changeListener) {
-		Iterator<WeakReference<OnLogQueueChangeListener>> iterator = mQueueChangeListeners.iterator();
-		
-		while (iterator.hasNext()) {
-			OnLogQueueChangeListener listener = iterator.next().get();
+		for (WeakReference<OnLogQueueChangeListener> reference : mQueueChangeListeners) {
+			OnLogQueueChangeListener listener = reference.get();
 			if ((listener == null) || (listener == changeListener)) {
-				iterator.remove();
+				mQueueChangeListeners.remove(reference);
 			}
 		}
 	}
 
+    /**
+     * Registers OnTransferProgressListener object that will receive notifications about response entity
+     * content reading progress of executed requests.
+     *
+     * Notifications are performed only when logs are enabled.
+     *
+     * The listener is internally stored as a weak reference. Please keep
+     * its strong reference as long as the object is suppose to receive notifications.
+     *
+     * @param listener OnTransferProgressListener object.
+     */
+    public void registerOnTransferProgressListener(OnTransferProgressListener listener) {
+        mTransferProgressListeners.registerObjectWeakListener(listener);
+    }
+
+    /**
+     * Removes OnTransferProgressListener object from receiving transfer progress notifications.
+     *
+     * @param listener OnTransferProgressListener object.
+     */
+    public void unregisterOnTransferProgressListener(OnTransferProgressListener listener) {
+        mTransferProgressListeners.unregisterObjectWeakListener(listener);
+    }
+
+    boolean hasTransferProgressListeners() {
+        return mTransferProgressListeners.getSizeWeakListener() > 0;
+    }
+
+    void notifyTransferProgress(final Request request, final long bytesRead, final long contentLength) {
+        mTransferProgressListeners.notifyObjectChange(new ObjectListenerHandler.NotificationHandler<OnTransferProgressListener>() {
+            @Override
+            public void runOnListener(OnTransferProgressListener listener) {
+                listener.onTransferProgress(ConnectionLogger.this, request, bytesRead, contentLength);
+            }
+        });
+    }
+
+    /**
+     * Interface used for getting notification about response entity content reading progress.
+     *
+     * Notification is performed on the thread that the request is executed on.
+     */
+    public interface OnTransferProgressListener {
+        /**
+         * Method called each time a part of response entity content is read.
+         *
+         * @param connectionLogger ConnectionLogger object the listener is registered in.
+         * @param request Request that is executed.
+         * @param bytesRead Number of entity content bytes read so far.
+         * @param contentLength Entity content length taken from Content-Length header or -1 if not known.
+         */
+        void onTransferProgress(ConnectionLogger connectionLogger, Request request, long bytesRead, long contentLength);
+    }
+
     /**
      * Interface used for getting notification about logs queue size changes.
+     *
+     * Notification is performed on the main thread. Changes made in a short time are notified once.
      */
 	public interface OnLogQueueChangeListener {
         /**
@@ -230,4 +400,29 @@ public class ConnectionLogger {
          */
 		void onQueueSizeChanged(ConnectionLogger connectionLogger);
 	}
+
+	private static class Ring {
+		final int mCapacity;
+		final AtomicLong mHead = new AtomicLong();
+		final AtomicReferenceArray<Entry> mSlots;
+
+		Ring(int capacity) {
+			mCapacity = Math.max(capacity, 0);
+			mSlots = new AtomicReferenceArray<Entry>(mCapacity);
+		}
+
+		int getIndex(long sequence) {
+			return (int)(sequence % mCapacity);
+		}
+	}
+
+	private static class Entry {
+		final long mSequence;
+		final ConnectionLog mLog;
+
+		Entry(long sequence, ConnectionLog log) {
+			mSequence = sequence;
+			mLog = log;
+		}
+	}
 }
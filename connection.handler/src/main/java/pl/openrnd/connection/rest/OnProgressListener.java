@@ -0,0 +1,38 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest;
+
+import pl.openrnd.connection.rest.request.Request;
+
+/**
+ * Interface used for getting notification about response entity content reading progress.
+ *
+ * Notification is performed on the thread that the request is executed on.
+ */
+public interface OnProgressListener {
+
+    /**
+     * Method called each time a part of response entity content is read.
+     *
+     * @param request Request that is executed.
+     * @param bytesRead Number of entity content bytes read so far.
+     * @param contentLength Entity content length taken from Content-Length header or -1 if not known.
+     */
+    void onProgress(Request request, long bytesRead, long contentLength);
+}
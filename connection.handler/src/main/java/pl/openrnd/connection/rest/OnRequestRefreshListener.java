@@ -0,0 +1,43 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest;
+
+import pl.openrnd.connection.rest.request.Request;
+import pl.openrnd.connection.rest.response.Response;
+
+/**
+ * Interface used for getting notification about background refresh of a stale cached response.
+ *
+ * When a stale cached response is delivered within stale-while-revalidate window, the request is
+ * executed again in the background. The listener is notified when that execution finishes.
+ *
+ * Notification is performed on the background thread that the refresh was executed on.
+ * This is not UI thread.
+ */
+public interface OnRequestRefreshListener {
+
+    /**
+     * Method called when background refresh of the request finished.
+     *
+     * @param request Request that was refreshed.
+     * @param response Response object with refreshed response data. It may contain the exception
+     *                 if the refresh failed.
+     */
+    void onRequestRefreshed(Request request, Response response);
+}
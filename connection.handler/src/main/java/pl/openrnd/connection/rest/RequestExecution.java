@@ -0,0 +1,86 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.io.InputStream;
+import java.util.Timer;
+
+import pl.openrnd.connection.rest.cache.CacheEntry;
+import pl.openrnd.connection.rest.data.Headers;
+import pl.openrnd.connection.rest.request.Request;
+import pl.openrnd.connection.rest.response.ResponseSource;
+import pl.openrnd.connection.rest.utils.CaptureInputStream;
+import pl.openrnd.connection.rest.utils.LimitedInputStream;
+
+/**
+ * Class containing state of a single request execution in ConnectionHandler.
+ *
+ * Execution may be split into network stage (executing request and reading response entity content)
+ * and parse stage (creating Response object), that are run on different threads.
+ *
+ * Response entity content is kept in memory (mContent) when the request is processed in two stages,
+ * when the response is going to be cached or when it is taken from the cache.
+ */
+class RequestExecution {
+    final Request mRequest;
+    final int mRequestNumber;
+    final RestConnectionLog.Builder mLogBuilder;
+    final boolean mIsBackground;
+
+    Timer mTimer;
+    HttpUriRequest mHttpUriRequest;
+    HttpEntity mHttpEntity;
+    InputStream mInputStream;
+    LimitedInputStream mLimitedInputStream;
+    CaptureInputStream mCaptureInputStream;
+    String mContentCharset;
+    boolean mIsContentDiscarded;
+
+    Integer mStatusCode;
+    String mReasonPhrase;
+    Header[] mHeaders;
+    Headers mResponseHeaders;
+    byte[] mContent;
+    int mContentLength;
+    Exception mException;
+
+    ResponseSource mResponseSource = ResponseSource.NETWORK;
+    CacheEntry mCacheEntry;
+    Header[] mConditionalHeaders;
+    CacheEntry mStaleEntry;
+    boolean mIsRefreshNeeded;
+    boolean mIsCacheable;
+    long mRequestTime;
+    long mResponseTime;
+
+    RequestExecution(Request request, int requestNumber, RestConnectionLog.Builder logBuilder, boolean isBackground) {
+        mRequest = request;
+        mRequestNumber = requestNumber;
+        mLogBuilder = logBuilder;
+        mIsBackground = isBackground;
+    }
+
+    Request getRequest() {
+        return mRequest;
+    }
+}
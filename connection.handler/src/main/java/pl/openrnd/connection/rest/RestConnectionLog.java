@@ -25,13 +25,18 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.cookie.Cookie;
 
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 
+import pl.openrnd.connection.rest.cache.CacheEntry;
+import pl.openrnd.connection.rest.data.Headers;
 import pl.openrnd.connection.rest.request.Request;
 import pl.openrnd.connection.rest.response.Response;
+import pl.openrnd.connection.rest.response.ResponseSource;
+import pl.openrnd.connection.rest.utils.CaptureInputStream;
 
 /**
  * Class containing communication log data.
@@ -41,14 +46,15 @@ public class RestConnectionLog extends ConnectionLog implements Serializable {
     private String mRequestUri;
     private String mRequestMethod;
     private String mRequestContent;
-    private Header[] mRequestHeaders;
+    private Headers mRequestHeaders;
 
     private String mResponseContent;
-    private Header[] mResponseHeaders;
+    private Headers mResponseHeaders;
     private Integer mResponseStatusCode;
     private String mResponseReasonPhrase;
     private Exception mResponseException;
     private Date mResponseDate;
+    private ResponseSource mResponseSource;
     private ArrayList<String> mCookies;
 
     private RestConnectionLog(Builder builder) {
@@ -65,6 +71,7 @@ public class RestConnectionLog extends ConnectionLog implements Serializable {
         mResponseReasonPhrase = builder.mResponseReasonPhrase;
         mResponseException = builder.mResponseException;
         mResponseDate = builder.mResponseDate;
+        mResponseSource = builder.mResponseSource;
         mCookies = builder.mCookie;
     }
 
@@ -114,7 +121,16 @@ public class RestConnectionLog extends ConnectionLog implements Serializable {
      * @return Request headers or null when not available.
      */
     public Header[] getRequestHeaders() {
-        return mRequestHeaders != null ? mRequestHeaders.clone() : null;
+        return toHeaderArray(mRequestHeaders);
+    }
+
+    /**
+     * Gets request headers with case-insensitive lookup by name.
+     *
+     * @return Request headers or null when not available.
+     */
+    public Headers getRequestHeaderList() {
+        return mRequestHeaders;
     }
 
     /**
@@ -134,7 +150,16 @@ public class RestConnectionLog extends ConnectionLog implements Serializable {
      * @return Server response headers or null when not available.
      */
     public Header[] getResponseHeaders() {
-        return mResponseHeaders != null ? mResponseHeaders.clone() : null;
+        return toHeaderArray(mResponseHeaders);
+    }
+
+    /**
+     * Gets server response headers with case-insensitive lookup by name.
+     *
+     * @return Server response headers or null when not available.
+     */
+    public Headers getResponseHeaderList() {
+        return mResponseHeaders;
     }
 
     /**
@@ -173,6 +198,33 @@ public class RestConnectionLog extends ConnectionLog implements Serializable {
         return mResponseDate != null ? (Date)mResponseDate.clone() : null;
     }
 
+    /**
+     * Gets source of data used for creating the response.
+     *
+     * @return ResponseSource value or null when not available.
+     */
+    public ResponseSource getResponseSource() {
+        return mResponseSource;
+    }
+
+    /**
+     * Gets information if cached response was revalidated with the server.
+     *
+     * @return True if the server responded with 304 (Not Modified) and cached response was used, false otherwise.
+     */
+    public boolean isRevalidated() {
+        return mResponseSource == ResponseSource.CONDITIONAL_CACHE;
+    }
+
+    /**
+     * Gets information if stale cached response was used.
+     *
+     * @return True if stale cached response was used, false otherwise.
+     */
+    public boolean isStale() {
+        return mResponseSource == ResponseSource.STALE_CACHE;
+    }
+
     /**
      * Gets list of cookies.
      *
@@ -198,15 +250,16 @@ public class RestConnectionLog extends ConnectionLog implements Serializable {
         private String mRequestUri;
         private String mRequestMethod;
         private String mRequestContent;
-        private Header[] mRequestHeaders;
+        private Headers mRequestHeaders;
         private Date mRequestDate;
 
         private String mResponseContent;
-        private Header[] mResponseHeaders;
+        private Headers mResponseHeaders;
         private Integer mResponseStatusCode;
         private String mResponseReasonPhrase;
         private Exception mResponseException;
         private Date mResponseDate;
+        private ResponseSource mResponseSource;
         private ArrayList<String> mCookie;
 
         Builder() {}
@@ -248,6 +301,14 @@ public class RestConnectionLog extends ConnectionLog implements Serializable {
             return this;
         }
 
+        Builder response(CacheEntry entry) {
+            mResponseHeaders = createHeaders(entry.getHeaders());
+            mResponseDate = Calendar.getInstance().getTime();
+            mResponseStatusCode = entry.getStatusCode();
+            mResponseReasonPhrase = entry.getReasonPhrase();
+            return this;
+        }
+
         Builder request(Request request) {
             mRequestName = request.getName();
             mRequestContent = request.getContentDescription();
@@ -257,6 +318,7 @@ public class RestConnectionLog extends ConnectionLog implements Serializable {
         Builder response(Response response) {
             mResponseException = response.getException();
             mResponseContent = response.getContentDescription();
+            mResponseSource = response.getResponseSource();
 
             if (mRequestDate == null) {
                 mResponseDate = Calendar.getInstance().getTime();
@@ -264,20 +326,52 @@ public class RestConnectionLog extends ConnectionLog implements Serializable {
             return this;
         }
 
+        Builder responseContent(CaptureInputStream captureInputStream, String charsetName) {
+            if ((mResponseContent == null) && (captureInputStream != null) && (captureInputStream.getCapturedSize() > 0)) {
+                Charset charset = Charset.defaultCharset();
+                if (charsetName != null) {
+                    try {
+                        charset = Charset.forName(charsetName);
+                    } catch (IllegalArgumentException exc) {
+                        // Default charset is used
+                    }
+                }
+
+                mResponseContent = new String(captureInputStream.getCapturedData(), 0, captureInputStream.getCapturedSize(), charset);
+                if (captureInputStream.isTruncated()) {
+                    mResponseContent += String.format("\n[truncated to %d bytes]", captureInputStream.getCapturedSize());
+                }
+            }
+            return this;
+        }
+
         RestConnectionLog build() {
             return new RestConnectionLog(this);
         }
     }
 
-    private static Header[] createHeaders(org.apache.http.Header[] headers) {
-        Header[] result = null;
+    private static Headers createHeaders(org.apache.http.Header[] headers) {
+        Headers result = null;
 
         if ((headers != null) && (headers.length > 0)) {
-            result = new Header[headers.length];
+            result = new Headers(headers);
+        }
+
+        return result;
+    }
+
+    private static Headers createHeaders(Headers headers) {
+        return headers.size() > 0 ? headers : null;
+    }
+
+    private static Header[] toHeaderArray(Headers headers) {
+        Header[] result = null;
+
+        if (headers != null) {
+            result = new Header[headers.size()];
 
-            for (int i = 0; i < headers.length; ++i) {
-                org.apache.http.Header header = headers[i];
-                result[i] = new Header(header.getName(), header.getValue());
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = new Header(headers.getName(i), headers.getValue(i));
             }
         }
 
@@ -0,0 +1,116 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest;
+
+/**
+ * Class containing queue metrics of a single request processing stage.
+ *
+ * @see pl.openrnd.connection.rest.ConnectionHandlerAsync#getNetworkStageMetrics()
+ * @see pl.openrnd.connection.rest.ConnectionHandlerAsync#getParseStageMetrics()
+ */
+public class StageMetrics {
+    private int mQueueSize;
+    private int mMaxQueueSize;
+    private int mActiveCount;
+    private long mCompletedCount;
+    private long mTotalWaitTime;
+    private long mTotalProcessingTime;
+
+    synchronized void onQueued() {
+        ++mQueueSize;
+        mMaxQueueSize = Math.max(mMaxQueueSize, mQueueSize);
+    }
+
+    synchronized void onDequeued(int count) {
+        mQueueSize = Math.max(mQueueSize - count, 0);
+    }
+
+    synchronized void onStarted(long waitTime) {
+        mQueueSize = Math.max(mQueueSize - 1, 0);
+        ++mActiveCount;
+        mTotalWaitTime += waitTime;
+    }
+
+    synchronized void onFinished(long processingTime) {
+        --mActiveCount;
+        ++mCompletedCount;
+        mTotalProcessingTime += processingTime;
+    }
+
+    /**
+     * Gets number of requests waiting in the stage queue.
+     *
+     * @return Current queue size.
+     */
+    public synchronized int getQueueSize() {
+        return mQueueSize;
+    }
+
+    /**
+     * Gets max number of requests that were waiting in the stage queue at the same time.
+     *
+     * @return Max queue size.
+     */
+    public synchronized int getMaxQueueSize() {
+        return mMaxQueueSize;
+    }
+
+    /**
+     * Gets number of requests currently processed by the stage.
+     *
+     * @return Number of active requests.
+     */
+    public synchronized int getActiveCount() {
+        return mActiveCount;
+    }
+
+    /**
+     * Gets number of requests processed by the stage.
+     *
+     * @return Number of completed requests.
+     */
+    public synchronized long getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    /**
+     * Gets average time in milliseconds that requests waited in the stage queue.
+     *
+     * @return Average wait time in milliseconds.
+     */
+    public synchronized long getAverageWaitTime() {
+        long started = mCompletedCount + mActiveCount;
+        return started > 0 ? mTotalWaitTime / started : 0;
+    }
+
+    /**
+     * Gets average time in milliseconds of processing request by the stage.
+     *
+     * @return Average processing time in milliseconds.
+     */
+    public synchronized long getAverageProcessingTime() {
+        return mCompletedCount > 0 ? mTotalProcessingTime / mCompletedCount : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("queue[%d/%d], active[%d], completed[%d], avgWait[%dms], avgProcessing[%dms]",
+                mQueueSize, mMaxQueueSize, mActiveCount, mCompletedCount, getAverageWaitTime(), getAverageProcessingTime());
+    }
+}
@@ -0,0 +1,184 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+import java.util.List;
+
+import pl.openrnd.connection.rest.data.Headers;
+import pl.openrnd.connection.rest.data.HttpHeader;
+
+/**
+ * Directives of Cache-Control header (and Pragma header) of a request or response.
+ */
+public final class CacheControl {
+    private static final String NO_CACHE = "no-cache";
+    private static final String NO_STORE = "no-store";
+    private static final String MAX_AGE = "max-age";
+    private static final String MUST_REVALIDATE = "must-revalidate";
+    private static final String PUBLIC = "public";
+    private static final String STALE_WHILE_REVALIDATE = "stale-while-revalidate";
+    private static final String STALE_IF_ERROR = "stale-if-error";
+
+    private boolean mIsNoCache;
+    private boolean mIsNoStore;
+    private boolean mIsMustRevalidate;
+    private boolean mIsPublic;
+    private long mMaxAge = -1;
+    private long mStaleWhileRevalidate = -1;
+    private long mStaleIfError = -1;
+
+    private CacheControl() {}
+
+    /**
+     * Parses cache directives from provided headers.
+     *
+     * @param headers Request or response headers
+     * @return CacheControl object
+     */
+    public static CacheControl parse(Headers headers) {
+        CacheControl result = new CacheControl();
+
+        List<String> values = headers.getValues(HttpHeader.CACHE_CONTROL);
+        for (int i = 0; i < values.size(); ++i) {
+            for (String directive : values.get(i).split(",")) {
+                result.parseDirective(directive.trim());
+            }
+        }
+
+        String pragma = headers.getValue(HttpHeader.PRAGMA);
+        if ((pragma != null) && pragma.toLowerCase().contains(NO_CACHE)) {
+            result.mIsNoCache = true;
+        }
+
+        return result;
+    }
+
+    private void parseDirective(String directive) {
+        String name = directive;
+        String value = null;
+
+        int separator = directive.indexOf('=');
+        if (separator >= 0) {
+            name = directive.substring(0, separator).trim();
+            value = directive.substring(separator + 1).trim();
+            if ((value.length() > 1) && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+        }
+
+        if (NO_CACHE.equalsIgnoreCase(name)) {
+            mIsNoCache = true;
+        } else if (NO_STORE.equalsIgnoreCase(name)) {
+            mIsNoStore = true;
+        } else if (MUST_REVALIDATE.equalsIgnoreCase(name)) {
+            mIsMustRevalidate = true;
+        } else if (PUBLIC.equalsIgnoreCase(name)) {
+            mIsPublic = true;
+        } else if (MAX_AGE.equalsIgnoreCase(name)) {
+            mMaxAge = parseSeconds(value);
+        } else if (STALE_WHILE_REVALIDATE.equalsIgnoreCase(name)) {
+            mStaleWhileRevalidate = parseSeconds(value);
+        } else if (STALE_IF_ERROR.equalsIgnoreCase(name)) {
+            mStaleIfError = parseSeconds(value);
+        }
+    }
+
+    /**
+     * Parses delta-seconds value.
+     *
+     * @param value Value to be parsed
+     * @return Number of seconds or -1 if value is not valid
+     */
+    static long parseSeconds(String value) {
+        long result = -1;
+
+        if (value != null) {
+            try {
+                result = Long.parseLong(value.trim());
+            } catch (NumberFormatException exc) {
+                // Invalid value is ignored
+            }
+        }
+
+        return result < 0 ? -1 : result;
+    }
+
+    /**
+     * Gets no-cache directive state.
+     *
+     * @return True if stored response must be revalidated before being used
+     */
+    public boolean isNoCache() {
+        return mIsNoCache;
+    }
+
+    /**
+     * Gets no-store directive state.
+     *
+     * @return True if response must not be stored
+     */
+    public boolean isNoStore() {
+        return mIsNoStore;
+    }
+
+    /**
+     * Gets must-revalidate directive state.
+     *
+     * @return True if stale response must not be used without revalidation
+     */
+    public boolean isMustRevalidate() {
+        return mIsMustRevalidate;
+    }
+
+    /**
+     * Gets public directive state.
+     *
+     * @return True if response may be stored even if request requires authorization
+     */
+    public boolean isPublic() {
+        return mIsPublic;
+    }
+
+    /**
+     * Gets max-age directive value.
+     *
+     * @return Number of seconds or -1 if directive is not present
+     */
+    public long getMaxAge() {
+        return mMaxAge;
+    }
+
+    /**
+     * Gets stale-while-revalidate directive value (RFC 5861).
+     *
+     * @return Number of seconds or -1 if directive is not present
+     */
+    public long getStaleWhileRevalidate() {
+        return mStaleWhileRevalidate;
+    }
+
+    /**
+     * Gets stale-if-error directive value (RFC 5861).
+     *
+     * @return Number of seconds or -1 if directive is not present
+     */
+    public long getStaleIfError() {
+        return mStaleIfError;
+    }
+}
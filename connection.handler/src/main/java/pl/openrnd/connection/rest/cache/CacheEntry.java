@@ -0,0 +1,159 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+import org.apache.http.Header;
+
+import pl.openrnd.connection.rest.data.Headers;
+
+/**
+ * Immutable cached response.
+ *
+ * Entry contains response status, headers and entity content together with values of request
+ * headers listed in response Vary header, that are used for matching the entry with later requests.
+ *
+ * @see pl.openrnd.connection.rest.cache.ResponseCache
+ */
+public final class CacheEntry {
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final int mStatusCode;
+    private final String mReasonPhrase;
+    private final Headers mHeaders;
+    private final Headers mVaryHeaders;
+    private final byte[] mContent;
+    private final long mRequestTime;
+    private final long mResponseTime;
+
+    /**
+     * Class constructor.
+     *
+     * @param statusCode Response status code
+     * @param reasonPhrase Response reason phrase
+     * @param headers Response headers
+     * @param varyHeaders Request headers listed in response Vary header
+     * @param content Response entity content. Array is not copied, so it must not be modified later.
+     * @param requestTime Time in milliseconds when the request was sent
+     * @param responseTime Time in milliseconds when the response was received
+     */
+    public CacheEntry(int statusCode, String reasonPhrase, Headers headers, Headers varyHeaders, byte[] content,
+                      long requestTime, long responseTime) {
+        mStatusCode = statusCode;
+        mReasonPhrase = reasonPhrase;
+        mHeaders = headers;
+        mVaryHeaders = varyHeaders;
+        mContent = content;
+        mRequestTime = requestTime;
+        mResponseTime = responseTime;
+    }
+
+    /**
+     * Gets response status code.
+     *
+     * @return Response status code
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * Gets response reason phrase.
+     *
+     * @return Response reason phrase
+     */
+    public String getReasonPhrase() {
+        return mReasonPhrase;
+    }
+
+    /**
+     * Gets response headers.
+     *
+     * @return Response headers
+     */
+    public Headers getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * Gets values of request headers listed in response Vary header.
+     *
+     * @return Request headers
+     */
+    public Headers getVaryHeaders() {
+        return mVaryHeaders;
+    }
+
+    /**
+     * Gets response entity content.
+     *
+     * Returned array must not be modified.
+     *
+     * @return Response entity content
+     */
+    public byte[] getContent() {
+        return mContent;
+    }
+
+    /**
+     * Gets time when the request was sent.
+     *
+     * @return Time in milliseconds
+     */
+    public long getRequestTime() {
+        return mRequestTime;
+    }
+
+    /**
+     * Gets time when the response was received.
+     *
+     * @return Time in milliseconds
+     */
+    public long getResponseTime() {
+        return mResponseTime;
+    }
+
+    /**
+     * Gets approximate number of bytes used by the entry.
+     *
+     * @return Entry size in bytes
+     */
+    public long getSize() {
+        long result = ENTRY_OVERHEAD + mContent.length;
+        result += getSize(mHeaders);
+        result += getSize(mVaryHeaders);
+        return result;
+    }
+
+    /**
+     * Creates response headers array.
+     *
+     * @return Response headers
+     */
+    public Header[] getHeaderArray() {
+        return mHeaders.toHeaderArray();
+    }
+
+    private static long getSize(Headers headers) {
+        long result = 0;
+        for (int i = 0; i < headers.size(); ++i) {
+            result += 2 * (headers.getName(i).length() + headers.getValue(i).length());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import pl.openrnd.connection.rest.data.Headers;
+
+/**
+ * Binary format of cache entries stored outside of memory.
+ */
+final class CacheEntryCodec {
+    private static final int MAGIC = 0x43484345;
+    private static final int VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CacheEntryCodec() {}
+
+    /**
+     * Writes entry together with its key.
+     *
+     * @param output DataOutput object
+     * @param key Entry key
+     * @param entry CacheEntry object
+     * @throws IOException Exception if entry can not be written
+     */
+    static void write(DataOutput output, String key, CacheEntry entry) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        writeString(output, key);
+        output.writeInt(entry.getStatusCode());
+        writeString(output, entry.getReasonPhrase());
+        output.writeLong(entry.getRequestTime());
+        output.writeLong(entry.getResponseTime());
+        writeHeaders(output, entry.getHeaders());
+        writeHeaders(output, entry.getVaryHeaders());
+        output.writeInt(entry.getContent().length);
+        output.write(entry.getContent());
+    }
+
+    /**
+     * Reads entry written by write() method.
+     *
+     * Every stored length is checked against the number of bytes left in the entry before any
+     * buffer is allocated, so a corrupted entry results in IOException and not in a huge allocation.
+     *
+     * @param input DataInput object
+     * @param key Expected entry key
+     * @param length Number of entry bytes available in the input
+     * @return CacheEntry object or null if stored entry has different key
+     * @throws IOException Exception if entry can not be read or has invalid format
+     */
+    static CacheEntry read(DataInput input, String key, long length) throws IOException {
+        EntryReader reader = new EntryReader(input, length);
+
+        if ((reader.readInt() != MAGIC) || (reader.readInt() != VERSION)) {
+            throw new IOException("Invalid cache entry format");
+        }
+
+        if (!key.equals(reader.readString())) {
+            return null;
+        }
+
+        int statusCode = reader.readInt();
+        String reasonPhrase = reader.readString();
+        long requestTime = reader.readLong();
+        long responseTime = reader.readLong();
+        Headers headers = reader.readHeaders();
+        Headers varyHeaders = reader.readHeaders();
+        byte[] content = reader.readBytes(reader.readInt());
+
+        return new CacheEntry(statusCode, reasonPhrase, headers, varyHeaders, content, requestTime, responseTime);
+    }
+
+    private static void writeHeaders(DataOutput output, Headers headers) throws IOException {
+        output.writeInt(headers.size());
+        for (int i = 0; i < headers.size(); ++i) {
+            writeString(output, headers.getName(i));
+            writeString(output, headers.getValue(i));
+        }
+    }
+
+    private static void writeString(DataOutput output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] data = value.getBytes(UTF_8);
+            output.writeInt(data.length);
+            output.write(data);
+        }
+    }
+
+    private static class EntryReader {
+        private final DataInput mInput;
+        private long mRemaining;
+
+        private EntryReader(DataInput input, long length) {
+            mInput = input;
+            mRemaining = length;
+        }
+
+        private int readInt() throws IOException {
+            consume(4);
+            return mInput.readInt();
+        }
+
+        private long readLong() throws IOException {
+            consume(8);
+            return mInput.readLong();
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            if (length < 0) {
+                throw new IOException("Invalid cache entry format");
+            }
+            consume(length);
+
+            byte[] result = new byte[length];
+            mInput.readFully(result);
+            return result;
+        }
+
+        private String readString() throws IOException {
+            int length = readInt();
+            if (length == -1) {
+                return null;
+            }
+            return new String(readBytes(length), UTF_8);
+        }
+
+        private Headers readHeaders() throws IOException {
+            int size = readInt();
+            // Each header takes at least two string lengths
+            if ((size < 0) || (size > mRemaining / 8)) {
+                throw new IOException("Invalid cache entry format");
+            }
+
+            String[] namesAndValues = new String[size * 2];
+            for (int i = 0; i < namesAndValues.length; ++i) {
+                namesAndValues[i] = readString();
+            }
+            return Headers.of(namesAndValues);
+        }
+
+        private void consume(long count) throws IOException {
+            if (count > mRemaining) {
+                throw new IOException("Invalid cache entry format");
+            }
+            mRemaining -= count;
+        }
+    }
+}
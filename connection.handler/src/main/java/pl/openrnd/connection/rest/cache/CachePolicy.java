@@ -0,0 +1,151 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+/**
+ * Client-side cache policy of a single request.
+ *
+ * Values set in the policy override the ones taken from response Cache-Control and Expires headers.
+ * Values that are not set are taken from the headers.
+ *
+ * @see pl.openrnd.connection.rest.request.Request#setCachePolicy(CachePolicy)
+ */
+public class CachePolicy {
+    private boolean mIsUsingCache;
+    private Long mMaxAge;
+    private Long mStaleWhileRevalidate;
+    private Long mStaleIfError;
+
+    private CachePolicy(Builder builder) {
+        mIsUsingCache = builder.mIsUsingCache;
+        mMaxAge = builder.mMaxAge;
+        mStaleWhileRevalidate = builder.mStaleWhileRevalidate;
+        mStaleIfError = builder.mStaleIfError;
+    }
+
+    /**
+     * Gets information if the request may use and store cached responses.
+     *
+     * @return True if cache is used, false otherwise
+     */
+    public boolean isUsingCache() {
+        return mIsUsingCache;
+    }
+
+    /**
+     * Gets time in seconds for which stored response is fresh.
+     *
+     * @return Number of seconds or null if taken from response headers
+     */
+    public Long getMaxAge() {
+        return mMaxAge;
+    }
+
+    /**
+     * Gets time in seconds after the response becomes stale, during which it may be used
+     * while it is revalidated in the background.
+     *
+     * @return Number of seconds or null if taken from response headers
+     */
+    public Long getStaleWhileRevalidate() {
+        return mStaleWhileRevalidate;
+    }
+
+    /**
+     * Gets time in seconds after the response becomes stale, during which it may be used
+     * when the server can not be reached or responds with an error.
+     *
+     * @return Number of seconds or null if taken from response headers
+     */
+    public Long getStaleIfError() {
+        return mStaleIfError;
+    }
+
+    /**
+     * Builder class for CachePolicy objects.
+     */
+    public static class Builder {
+        private boolean mIsUsingCache;
+        private Long mMaxAge;
+        private Long mStaleWhileRevalidate;
+        private Long mStaleIfError;
+
+        /**
+         * Base class constructor
+         */
+        public Builder() {
+            mIsUsingCache = true;
+        }
+
+        /**
+         * Sets cache usage state.
+         *
+         * @param usingCache False if the request must neither use nor store cached responses
+         * @return Builder object
+         */
+        public Builder usingCache(boolean usingCache) {
+            mIsUsingCache = usingCache;
+            return this;
+        }
+
+        /**
+         * Sets time in seconds for which stored response is fresh.
+         *
+         * @param maxAge Number of seconds
+         * @return Builder object
+         */
+        public Builder maxAge(long maxAge) {
+            mMaxAge = Math.max(maxAge, 0);
+            return this;
+        }
+
+        /**
+         * Sets time in seconds after the response becomes stale, during which it is used
+         * immediately while it is revalidated in the background.
+         *
+         * @param staleWhileRevalidate Number of seconds
+         * @return Builder object
+         */
+        public Builder staleWhileRevalidate(long staleWhileRevalidate) {
+            mStaleWhileRevalidate = Math.max(staleWhileRevalidate, 0);
+            return this;
+        }
+
+        /**
+         * Sets time in seconds after the response becomes stale, during which it is used
+         * when the server can not be reached or responds with 5xx status code.
+         *
+         * @param staleIfError Number of seconds
+         * @return Builder object
+         */
+        public Builder staleIfError(long staleIfError) {
+            mStaleIfError = Math.max(staleIfError, 0);
+            return this;
+        }
+
+        /**
+         * Creates new instance of CachePolicy class
+         *
+         * @return New CachePolicy object
+         */
+        public CachePolicy build() {
+            return new CachePolicy(this);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+/**
+ * Class containing statistics of HttpCache usage.
+ *
+ * Only requests that can be served from the cache (GET requests) are counted.
+ */
+public class CacheStatistics {
+    private long mHitCount;
+    private long mMissCount;
+    private long mStaleHitCount;
+    private long mStaleIfErrorCount;
+    private long mRevalidatedCount;
+    private long mSavedBytes;
+
+    CacheStatistics() {}
+
+    synchronized void onHit() {
+        ++mHitCount;
+    }
+
+    synchronized void onMiss() {
+        ++mMissCount;
+    }
+
+    synchronized void onStaleHit() {
+        ++mStaleHitCount;
+    }
+
+    synchronized void onStaleIfError() {
+        ++mStaleIfErrorCount;
+    }
+
+    synchronized void onRevalidated(long contentLength) {
+        ++mRevalidatedCount;
+        mSavedBytes += contentLength;
+    }
+
+    /**
+     * Gets number of requests checked in the cache.
+     *
+     * @return Number of requests
+     */
+    public synchronized long getRequestCount() {
+        return mHitCount + mStaleHitCount + mMissCount;
+    }
+
+    /**
+     * Gets number of requests served from the cache without network access.
+     *
+     * @return Number of requests
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Gets number of requests that required network access.
+     *
+     * @return Number of requests
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Gets number of requests served immediately with stale stored response, that was then
+     * revalidated in the background (stale-while-revalidate).
+     *
+     * @return Number of requests
+     */
+    public synchronized long getStaleHitCount() {
+        return mStaleHitCount;
+    }
+
+    /**
+     * Gets number of requests that failed and were served with stale stored response (stale-if-error).
+     *
+     * These requests are also counted as misses.
+     *
+     * @return Number of requests
+     */
+    public synchronized long getStaleIfErrorCount() {
+        return mStaleIfErrorCount;
+    }
+
+    /**
+     * Gets number of requests answered by the server with 304 (Not Modified) and served with stored content.
+     *
+     * These requests are also counted as misses.
+     *
+     * @return Number of requests
+     */
+    public synchronized long getRevalidatedCount() {
+        return mRevalidatedCount;
+    }
+
+    /**
+     * Gets number of response entity content bytes that were not transferred thanks to revalidation.
+     *
+     * @return Number of bytes
+     */
+    public synchronized long getSavedBytes() {
+        return mSavedBytes;
+    }
+
+    /**
+     * Gets ratio of requests served from the cache.
+     *
+     * @return Value from 0 to 1, 0 if no requests were checked
+     */
+    public synchronized float getHitRatio() {
+        long requestCount = getRequestCount();
+        return requestCount > 0 ? (float)getHitCount() / requestCount : 0;
+    }
+
+    /**
+     * Gets ratio of requests that required network access.
+     *
+     * @return Value from 0 to 1, 0 if no requests were checked
+     */
+    public synchronized float getMissRatio() {
+        long requestCount = getRequestCount();
+        return requestCount > 0 ? (float)getMissCount() / requestCount : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CacheStatistics: requests[%d], hits[%d], stale hits[%d], misses[%d], stale if error[%d], revalidated[%d], saved bytes[%d]",
+                getRequestCount(), getHitCount(), getStaleHitCount(), getMissCount(), getStaleIfErrorCount(), getRevalidatedCount(), getSavedBytes());
+    }
+}
@@ -0,0 +1,37 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+/**
+ * Storage engine of the disk response cache.
+ *
+ * @see pl.openrnd.connection.rest.ConnectionConfig.Builder#diskCacheStorage(DiskCacheStorage)
+ */
+public enum DiskCacheStorage {
+    /**
+     * Each entry is stored in a separate file (DiskResponseCache).
+     */
+    FILES,
+
+    /**
+     * Entries are packed into large append-only segment files read through memory mapping
+     * (SegmentResponseCache). Suitable for caches holding thousands of small entries.
+     */
+    SEGMENTS
+}
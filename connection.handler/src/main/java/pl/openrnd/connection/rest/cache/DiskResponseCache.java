@@ -0,0 +1,426 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Response cache storage keeping entries in files.
+ *
+ * Each entry is stored in a separate file named after the hash of its key. Entry is written
+ * to a temporary file first and renamed when complete, so a crash never leaves a partially
+ * written entry. Operations are appended to a journal file, that is used for rebuilding the
+ * index of entries (in least recently used order) when the cache is opened:
+ *
+ * <pre>
+ * DIRTY hash       - entry is being written
+ * CLEAN hash size  - entry was written
+ * READ hash        - entry was used
+ * REMOVE hash      - entry was removed
+ * </pre>
+ *
+ * Lines that can not be parsed (e.g. partially written during a crash) are ignored. Journal is
+ * rewritten when it contains too many redundant lines. The cache is opened lazily, on the first
+ * access, so creating the object does not perform any disk operations.
+ *
+ * Least recently used entries are evicted when size of all entries exceeds the limit.
+ */
+public class DiskResponseCache implements ResponseCache {
+    private static final String TAG = DiskResponseCache.class.getSimpleName();
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String JOURNAL_HEADER = "pl.openrnd.connection.rest.cache.DiskResponseCache 1";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    private static final int REDUNDANT_OPERATIONS_LIMIT = 2000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long mSize;
+    private Writer mJournalWriter;
+    private int mRedundantOperations;
+    private int mTmpFileCounter;
+    private boolean mIsOpened;
+
+    /**
+     * Class constructor.
+     *
+     * @param directory Directory for cache files. It should not be used for other files.
+     * @param maxSize Max number of bytes used by stored entries
+     */
+    public DiskResponseCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        String hash = getHash(key);
+
+        Long size;
+        synchronized (this) {
+            if (!open()) {
+                return null;
+            }
+
+            // Lookup with get() moves the entry to the end of the eviction order
+            size = mEntries.get(hash);
+            if (size == null) {
+                return null;
+            }
+            appendJournal(READ, hash, null);
+        }
+
+        CacheEntry result = null;
+
+        File entryFile = getEntryFile(hash);
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)));
+            result = CacheEntryCodec.read(input, key, entryFile.length());
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("get(): entry[%s] can not be read", hash), exc);
+
+            synchronized (this) {
+                // Entry might have been replaced by put() while it was read
+                if (size.equals(mEntries.get(hash))) {
+                    removeEntry(hash);
+                }
+            }
+        } finally {
+            closeQuietly(input);
+        }
+
+        return result;
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) {
+        String hash = getHash(key);
+        File tmpFile;
+
+        synchronized (this) {
+            if (!open()) {
+                return;
+            }
+            appendJournal(DIRTY, hash, null);
+            tmpFile = new File(mDirectory, String.format("%s.%d%s", hash, mTmpFileCounter++, TMP_SUFFIX));
+        }
+
+        boolean isWritten = false;
+
+        DataOutputStream output = null;
+        try {
+            FileOutputStream fileOutput = new FileOutputStream(tmpFile);
+            output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            CacheEntryCodec.write(output, key, entry);
+            output.flush();
+            // Entry must be on the disk before it replaces the previous one
+            fileOutput.getFD().sync();
+            output.close();
+            output = null;
+
+            isWritten = true;
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("put(): entry[%s] can not be written", hash), exc);
+        } finally {
+            closeQuietly(output);
+        }
+
+        synchronized (this) {
+            long size = tmpFile.length();
+
+            if (isWritten && tmpFile.renameTo(getEntryFile(hash))) {
+                Long previousSize = mEntries.put(hash, size);
+                if (previousSize != null) {
+                    mSize -= previousSize;
+                }
+                mSize += size;
+
+                appendJournal(CLEAN, hash, size);
+                trimToSize();
+            } else {
+                deleteFile(tmpFile);
+                removeEntry(hash);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        if (open()) {
+            removeEntry(getHash(key));
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (open()) {
+            for (String hash : mEntries.keySet()) {
+                deleteFile(getEntryFile(hash));
+            }
+            mEntries.clear();
+            mSize = 0;
+
+            rebuildJournal();
+        }
+    }
+
+    @Override
+    public synchronized long getSize() {
+        return open() ? mSize : 0;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    private boolean open() {
+        if (!mIsOpened) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                Log.e(TAG, String.format("open(): directory[%s] can not be created", mDirectory));
+                return false;
+            }
+
+            mEntries.clear();
+            mSize = 0;
+
+            readJournal();
+            deleteUnknownFiles();
+            rebuildJournal();
+            trimToSize();
+
+            mIsOpened = mJournalWriter != null;
+        }
+        return mIsOpened;
+    }
+
+    private void readJournal() {
+        File journalFile = new File(mDirectory, JOURNAL_FILE);
+        if (!journalFile.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF_8));
+
+            if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                Log.e(TAG, "readJournal(): unknown journal format, cache is cleared");
+                return;
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                readJournalLine(line);
+            }
+        } catch (IOException exc) {
+            Log.e(TAG, "readJournal(): EXC", exc);
+        } finally {
+            closeQuietly(reader);
+        }
+
+        // Entries which files are missing (e.g. removed by the system) are dropped
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (!getEntryFile(entry.getKey()).isFile()) {
+                mSize -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void readJournalLine(String line) {
+        String[] parts = line.split(" ");
+
+        if ((parts.length == 3) && CLEAN.equals(parts[0])) {
+            try {
+                Long previousSize = mEntries.put(parts[1], Long.parseLong(parts[2]));
+                if (previousSize != null) {
+                    mSize -= previousSize;
+                }
+                mSize += mEntries.get(parts[1]);
+            } catch (NumberFormatException exc) {
+                Log.e(TAG, String.format("readJournalLine(): invalid line[%s]", line));
+            }
+        } else if ((parts.length == 2) && READ.equals(parts[0])) {
+            mEntries.get(parts[1]);
+        } else if ((parts.length == 2) && REMOVE.equals(parts[0])) {
+            Long size = mEntries.remove(parts[1]);
+            if (size != null) {
+                mSize -= size;
+            }
+        } else if (!((parts.length == 2) && DIRTY.equals(parts[0]))) {
+            Log.e(TAG, String.format("readJournalLine(): invalid line[%s]", line));
+        }
+    }
+
+    private void deleteUnknownFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!JOURNAL_FILE.equals(name) && !mEntries.containsKey(name)) {
+                    deleteFile(file);
+                }
+            }
+        }
+    }
+
+    private void rebuildJournal() {
+        closeQuietly(mJournalWriter);
+        mJournalWriter = null;
+
+        File journalFile = new File(mDirectory, JOURNAL_FILE);
+        File journalTmpFile = new File(mDirectory, JOURNAL_FILE_TMP);
+
+        Writer writer = null;
+        try {
+            FileOutputStream fileOutput = new FileOutputStream(journalTmpFile);
+            writer = new BufferedWriter(new OutputStreamWriter(fileOutput, UTF_8));
+            writer.write(JOURNAL_HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(String.format("%s %s %d\n", CLEAN, entry.getKey(), entry.getValue()));
+            }
+            writer.flush();
+            // Journal must be on the disk before it replaces the previous one
+            fileOutput.getFD().sync();
+            writer.close();
+            writer = null;
+
+            if (!journalTmpFile.renameTo(journalFile)) {
+                throw new IOException("Journal file can not be replaced");
+            }
+
+            mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), UTF_8));
+            mRedundantOperations = 0;
+        } catch (IOException exc) {
+            Log.e(TAG, "rebuildJournal(): EXC", exc);
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private void appendJournal(String operation, String hash, Long size) {
+        if (mJournalWriter == null) {
+            return;
+        }
+
+        try {
+            if (size != null) {
+                mJournalWriter.write(String.format("%s %s %d\n", operation, hash, size));
+            } else {
+                mJournalWriter.write(String.format("%s %s\n", operation, hash));
+            }
+            mJournalWriter.flush();
+        } catch (IOException exc) {
+            Log.e(TAG, "appendJournal(): EXC", exc);
+        }
+
+        if (!CLEAN.equals(operation)) {
+            ++mRedundantOperations;
+        }
+        if ((mRedundantOperations >= REDUNDANT_OPERATIONS_LIMIT) && (mRedundantOperations >= mEntries.size())) {
+            rebuildJournal();
+        }
+    }
+
+    private void removeEntry(String hash) {
+        Long size = mEntries.remove(hash);
+        if (size != null) {
+            mSize -= size;
+            deleteFile(getEntryFile(hash));
+            appendJournal(REMOVE, hash, null);
+        }
+    }
+
+    private void trimToSize() {
+        while ((mSize > mMaxSize) && !mEntries.isEmpty()) {
+            removeEntry(mEntries.keySet().iterator().next());
+        }
+    }
+
+    private File getEntryFile(String hash) {
+        return new File(mDirectory, hash);
+    }
+
+    private static String getHash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes(UTF_8));
+
+            StringBuilder result = new StringBuilder(hash.length * 2);
+            for (byte value : hash) {
+                result.append(String.format("%02x", value & 0xff));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, String.format("deleteFile(): file[%s] can not be deleted", file));
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException exc) {
+                Log.e(TAG, "closeQuietly(): EXC", exc);
+            }
+        }
+    }
+}
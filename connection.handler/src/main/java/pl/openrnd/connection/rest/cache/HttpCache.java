@@ -0,0 +1,591 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+import android.util.Log;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHeader;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import pl.openrnd.connection.rest.data.Headers;
+import pl.openrnd.connection.rest.data.HttpHeader;
+import pl.openrnd.connection.rest.data.HttpStatusCode;
+
+/**
+ * HTTP cache used by ConnectionHandler.
+ *
+ * Class decides which responses can be stored and when stored responses can be used,
+ * following Cache-Control, Expires, Date, Age and Vary headers. Entries are kept in provided
+ * ResponseCache storage, keyed by request method and uri.
+ *
+ * Only GET requests are served from the cache. Successful requests with other methods
+ * invalidate the stored response for the same uri. Responses varying on cookies (Vary: Cookie)
+ * are not stored, because cookies are added to the request by the client after it is built.
+ *
+ * Responses having validators (ETag or Last-Modified header) are stored even if they are not
+ * fresh, so they can be revalidated with conditional requests. Server response 304 (Not Modified)
+ * refreshes stored entry, that is then used as the response.
+ *
+ * Stale entries may also be used while they are revalidated in the background (stale-while-revalidate)
+ * or when the server can not be reached (stale-if-error), as defined in RFC 5861 or in CachePolicy
+ * of the request.
+ *
+ * @see pl.openrnd.connection.rest.cache.ResponseCache
+ */
+public class HttpCache {
+    private static final String TAG = HttpCache.class.getSimpleName();
+
+    private static final String METHOD_GET = "GET";
+    private static final String METHOD_HEAD = "HEAD";
+    private static final String VARY_ANY = "*";
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String TRANSFER_ENCODING = "Transfer-Encoding";
+
+    // Headers added by the client after the request is built, so they are not visible in HttpUriRequest
+    private static final String[] CLIENT_ADDED_HEADERS = {
+            HttpHeader.COOKIE,
+            "Cookie2"
+    };
+
+    private static final String[] CONDITIONAL_HEADERS = {
+            HttpHeader.IF_NONE_MATCH,
+            HttpHeader.IF_MODIFIED_SINCE,
+            HttpHeader.IF_RANGE,
+            "If-Match",
+            "If-Unmodified-Since"
+    };
+
+    private static final int[] CACHEABLE_STATUS_CODES = {
+            HttpStatusCode.SUCCESS_200_OK,
+            HttpStatusCode.SUCCESS_203_NON_AUTHORITATIVE_INFORMATION,
+            HttpStatusCode.SUCCESS_204_NO_CONTENT,
+            HttpStatusCode.REDIRECT_300_MULTIPLE_CHOICES,
+            HttpStatusCode.REDIRECT_301_MOVED_PERMANENTLY,
+            HttpStatusCode.CLIENT_ERROR_410_GONE
+    };
+
+    private final ResponseCache mStorage;
+    private final CacheStatistics mStatistics;
+
+    /**
+     * Class constructor.
+     *
+     * @param storage ResponseCache object used for storing entries
+     */
+    public HttpCache(ResponseCache storage) {
+        mStorage = storage;
+        mStatistics = new CacheStatistics();
+    }
+
+    /**
+     * Gets storage of cache entries.
+     *
+     * @return ResponseCache object
+     */
+    public ResponseCache getStorage() {
+        return mStorage;
+    }
+
+    /**
+     * Gets cache usage statistics.
+     *
+     * @return CacheStatistics object
+     */
+    public CacheStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Gets stored entry that may be used for provided request.
+     *
+     * Returned entry may be stale, so its freshness has to be checked with isFresh() method.
+     * Stale entries can be revalidated with the server (see addConditionalHeaders()).
+     *
+     * @param request Request object
+     * @return CacheEntry object or null if request is not GET request, does not allow using
+     * stored responses or matching entry is not found
+     */
+    public CacheEntry lookup(HttpUriRequest request) {
+        return lookup(request, null);
+    }
+
+    /**
+     * Gets stored entry that may be used for provided request.
+     *
+     * @param request Request object
+     * @param policy Request CachePolicy object or null
+     * @return CacheEntry object or null if request is not GET request, does not allow using
+     * stored responses or matching entry is not found
+     */
+    public CacheEntry lookup(HttpUriRequest request, CachePolicy policy) {
+        if (!METHOD_GET.equalsIgnoreCase(request.getMethod()) || ((policy != null) && !policy.isUsingCache())) {
+            return null;
+        }
+
+        Headers requestHeaders = new Headers(request.getAllHeaders());
+        CacheControl requestCacheControl = CacheControl.parse(requestHeaders);
+        if (requestCacheControl.isNoCache() || requestCacheControl.isNoStore()) {
+            return null;
+        }
+
+        return get(request);
+    }
+
+    /**
+     * Records that request was served with fresh stored entry.
+     */
+    public void onHit() {
+        mStatistics.onHit();
+    }
+
+    /**
+     * Gets information if response for provided request can be fetched in advance.
+     *
+     * @param request Request object
+     * @return True for GET requests, false otherwise
+     */
+    public boolean isPrefetchable(HttpUriRequest request) {
+        return METHOD_GET.equalsIgnoreCase(request.getMethod());
+    }
+
+    /**
+     * Records that request was served with stale stored entry while it is revalidated in the background.
+     */
+    public void onStaleHit() {
+        mStatistics.onStaleHit();
+    }
+
+    /**
+     * Records that request failed and was served with stale stored entry.
+     */
+    public void onStaleIfError() {
+        mStatistics.onStaleIfError();
+    }
+
+    /**
+     * Records that request required network access.
+     */
+    public void onMiss() {
+        mStatistics.onMiss();
+    }
+
+    /**
+     * Adds validators of provided entry (If-None-Match and If-Modified-Since headers) to the request.
+     *
+     * Validators are not added if the request already contains conditional headers.
+     *
+     * @param request Request object
+     * @param entry Stale CacheEntry object
+     * @return Array of added headers, empty if entry has no validators
+     */
+    public Header[] addConditionalHeaders(HttpUriRequest request, CacheEntry entry) {
+        for (String name : CONDITIONAL_HEADERS) {
+            if (request.containsHeader(name)) {
+                return new Header[0];
+            }
+        }
+
+        List<Header> result = new ArrayList<Header>(2);
+
+        String etag = entry.getHeaders().getValue(HttpHeader.ETAG);
+        if (etag != null) {
+            result.add(new BasicHeader(HttpHeader.IF_NONE_MATCH, etag));
+        }
+
+        String lastModified = entry.getHeaders().getValue(HttpHeader.LAST_MODIFIED);
+        if (lastModified != null) {
+            result.add(new BasicHeader(HttpHeader.IF_MODIFIED_SINCE, lastModified));
+        }
+
+        for (Header header : result) {
+            request.addHeader(header);
+        }
+
+        return result.toArray(new Header[result.size()]);
+    }
+
+    /**
+     * Updates stored entry after the server confirmed it is still valid (304 Not Modified).
+     *
+     * Headers of the 304 response replace stored ones, entity content is kept.
+     *
+     * @param request Request object
+     * @param entry Revalidated CacheEntry object
+     * @param notModifiedHeaders Headers of 304 response
+     * @param requestTime Time in milliseconds when the conditional request was sent
+     * @param responseTime Time in milliseconds when the 304 response was received
+     * @return Updated CacheEntry object
+     */
+    public CacheEntry update(HttpUriRequest request, CacheEntry entry, Headers notModifiedHeaders,
+                             long requestTime, long responseTime) {
+        List<String> namesAndValues = new ArrayList<String>();
+        for (int i = 0; i < notModifiedHeaders.size(); ++i) {
+            String name = notModifiedHeaders.getName(i);
+            if (!HttpHeader.CONTENT_LENGTH.equalsIgnoreCase(name) && !TRANSFER_ENCODING.equalsIgnoreCase(name)) {
+                namesAndValues.add(name);
+                namesAndValues.add(notModifiedHeaders.getValue(i));
+            }
+        }
+        Headers headers = entry.getHeaders().replace(Headers.of(namesAndValues.toArray(new String[namesAndValues.size()])));
+
+        CacheEntry result = new CacheEntry(entry.getStatusCode(), entry.getReasonPhrase(), headers, entry.getVaryHeaders(),
+                entry.getContent(), requestTime, responseTime);
+
+        if (!CacheControl.parse(headers).isNoStore()) {
+            mStorage.put(getKey(request), result);
+        } else {
+            mStorage.remove(getKey(request));
+        }
+
+        mStatistics.onRevalidated(entry.getContent().length);
+
+        return result;
+    }
+
+    /**
+     * Gets stored entry matching provided request, regardless of its freshness.
+     *
+     * @param request Request object
+     * @return CacheEntry object or null if not found
+     */
+    public CacheEntry get(HttpUriRequest request) {
+        CacheEntry result = mStorage.get(getKey(request));
+
+        if ((result != null) && !matchesVaryHeaders(result, request)) {
+            result = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets information if response for provided request can be stored.
+     *
+     * @param request Request object
+     * @param statusCode Response status code
+     * @param responseHeaders Response headers
+     * @return True if response can be stored, false otherwise
+     */
+    public boolean isCacheable(HttpUriRequest request, int statusCode, Headers responseHeaders) {
+        return isCacheable(request, statusCode, responseHeaders, null);
+    }
+
+    /**
+     * Gets information if response for provided request can be stored.
+     *
+     * @param request Request object
+     * @param statusCode Response status code
+     * @param responseHeaders Response headers
+     * @param policy Request CachePolicy object or null
+     * @return True if response can be stored, false otherwise
+     */
+    public boolean isCacheable(HttpUriRequest request, int statusCode, Headers responseHeaders, CachePolicy policy) {
+        if ((policy != null) && !policy.isUsingCache()) {
+            return false;
+        }
+
+        if (!METHOD_GET.equalsIgnoreCase(request.getMethod()) || !isCacheableStatusCode(statusCode)) {
+            return false;
+        }
+
+        Headers requestHeaders = new Headers(request.getAllHeaders());
+        CacheControl requestCacheControl = CacheControl.parse(requestHeaders);
+        CacheControl responseCacheControl = CacheControl.parse(responseHeaders);
+
+        if (requestCacheControl.isNoStore() || responseCacheControl.isNoStore()) {
+            return false;
+        }
+
+        if (requestHeaders.contains(AUTHORIZATION) && !responseCacheControl.isPublic()) {
+            return false;
+        }
+
+        for (String name : getVaryHeaderNames(responseHeaders)) {
+            // Variant selected by cookies can not be matched, as cookies are added by the client later
+            if (VARY_ANY.equals(name) || isClientAddedHeader(name)) {
+                return false;
+            }
+        }
+
+        // Responses without freshness lifetime are stored only if they can be revalidated
+        return (getFreshnessLifetime(responseHeaders, responseCacheControl, policy, 0) > 0)
+                || responseHeaders.contains(HttpHeader.ETAG) || responseHeaders.contains(HttpHeader.LAST_MODIFIED);
+    }
+
+    /**
+     * Stores response for provided request.
+     *
+     * @param request Request object
+     * @param statusCode Response status code
+     * @param reasonPhrase Response reason phrase
+     * @param responseHeaders Response headers
+     * @param content Response entity content. Array is not copied, so it must not be modified later.
+     * @param requestTime Time in milliseconds when the request was sent
+     * @param responseTime Time in milliseconds when the response was received
+     * @return Stored CacheEntry object
+     */
+    public CacheEntry put(HttpUriRequest request, int statusCode, String reasonPhrase, Headers responseHeaders,
+                          byte[] content, long requestTime, long responseTime) {
+        List<String> varyHeaders = new ArrayList<String>();
+        for (String name : getVaryHeaderNames(responseHeaders)) {
+            Header header = request.getFirstHeader(name);
+            if (header != null) {
+                varyHeaders.add(name);
+                varyHeaders.add(header.getValue());
+            }
+        }
+
+        CacheEntry result = new CacheEntry(statusCode, reasonPhrase, responseHeaders,
+                Headers.of(varyHeaders.toArray(new String[varyHeaders.size()])), content, requestTime, responseTime);
+        mStorage.put(getKey(request), result);
+        return result;
+    }
+
+    /**
+     * Removes stored response for the uri of provided request.
+     *
+     * Method should be called after successful requests that modify the resource (e.g. POST, PUT, DELETE).
+     *
+     * @param request Request object
+     */
+    public void invalidate(HttpUriRequest request) {
+        mStorage.remove(getKey(METHOD_GET, request));
+    }
+
+    /**
+     * Gets information if provided request method does not modify the resource.
+     *
+     * @param request Request object
+     * @return True for GET and HEAD requests, false otherwise
+     */
+    public boolean isSafeMethod(HttpUriRequest request) {
+        return METHOD_GET.equalsIgnoreCase(request.getMethod()) || METHOD_HEAD.equalsIgnoreCase(request.getMethod());
+    }
+
+    /**
+     * Removes all stored responses.
+     */
+    public void clear() {
+        mStorage.clear();
+    }
+
+    /**
+     * Gets information if provided entry can be used without revalidation.
+     *
+     * @param entry CacheEntry object
+     * @param now Current time in milliseconds
+     * @return True if entry is fresh, false otherwise
+     */
+    public boolean isFresh(CacheEntry entry, long now) {
+        return isFresh(entry, now, null);
+    }
+
+    /**
+     * Gets information if provided entry can be used without revalidation.
+     *
+     * @param entry CacheEntry object
+     * @param now Current time in milliseconds
+     * @param policy Request CachePolicy object or null
+     * @return True if entry is fresh, false otherwise
+     */
+    public boolean isFresh(CacheEntry entry, long now, CachePolicy policy) {
+        CacheControl cacheControl = CacheControl.parse(entry.getHeaders());
+        if (cacheControl.isNoCache() && ((policy == null) || (policy.getMaxAge() == null))) {
+            return false;
+        }
+
+        return getFreshnessLifetime(entry.getHeaders(), cacheControl, policy, entry.getResponseTime()) > getAge(entry, now);
+    }
+
+    /**
+     * Gets information if provided stale entry can be used while it is revalidated in the background.
+     *
+     * @param entry CacheEntry object
+     * @param now Current time in milliseconds
+     * @param policy Request CachePolicy object or null
+     * @return True if entry can be used, false otherwise
+     */
+    public boolean isStaleWhileRevalidateAllowed(CacheEntry entry, long now, CachePolicy policy) {
+        CacheControl cacheControl = CacheControl.parse(entry.getHeaders());
+
+        long staleWhileRevalidate = cacheControl.getStaleWhileRevalidate();
+        if ((policy != null) && (policy.getStaleWhileRevalidate() != null)) {
+            staleWhileRevalidate = policy.getStaleWhileRevalidate();
+        } else if (cacheControl.isMustRevalidate() || cacheControl.isNoCache()) {
+            return false;
+        }
+
+        return isStaleAllowed(entry, now, cacheControl, policy, staleWhileRevalidate);
+    }
+
+    /**
+     * Gets information if provided stale entry can be used when the server can not be reached
+     * or responds with an error.
+     *
+     * @param entry CacheEntry object
+     * @param now Current time in milliseconds
+     * @param policy Request CachePolicy object or null
+     * @return True if entry can be used, false otherwise
+     */
+    public boolean isStaleIfErrorAllowed(CacheEntry entry, long now, CachePolicy policy) {
+        CacheControl cacheControl = CacheControl.parse(entry.getHeaders());
+
+        long staleIfError = cacheControl.getStaleIfError();
+        if ((policy != null) && (policy.getStaleIfError() != null)) {
+            staleIfError = policy.getStaleIfError();
+        } else if (cacheControl.isMustRevalidate() || cacheControl.isNoCache()) {
+            return false;
+        }
+
+        return isStaleAllowed(entry, now, cacheControl, policy, staleIfError);
+    }
+
+    private boolean isStaleAllowed(CacheEntry entry, long now, CacheControl cacheControl, CachePolicy policy, long maxStale) {
+        if (maxStale < 0) {
+            return false;
+        }
+
+        long freshnessLifetime = getFreshnessLifetime(entry.getHeaders(), cacheControl, policy, entry.getResponseTime());
+        return freshnessLifetime + maxStale * 1000 > getAge(entry, now);
+    }
+
+    /**
+     * Gets current age of provided entry, as defined in RFC 7234.
+     *
+     * @param entry CacheEntry object
+     * @param now Current time in milliseconds
+     * @return Age in milliseconds
+     */
+    public long getAge(CacheEntry entry, long now) {
+        Headers headers = entry.getHeaders();
+
+        long apparentAge = 0;
+        Date date = parseDate(headers.getValue(HttpHeader.DATE));
+        if (date != null) {
+            apparentAge = Math.max(0, entry.getResponseTime() - date.getTime());
+        }
+
+        long ageValue = CacheControl.parseSeconds(headers.getValue(HttpHeader.AGE)) * 1000;
+        long responseDelay = Math.max(0, entry.getResponseTime() - entry.getRequestTime());
+        long residentTime = Math.max(0, now - entry.getResponseTime());
+
+        return Math.max(apparentAge, ageValue) + responseDelay + residentTime;
+    }
+
+    private long getFreshnessLifetime(Headers headers, CacheControl cacheControl, CachePolicy policy, long responseTime) {
+        if ((policy != null) && (policy.getMaxAge() != null)) {
+            return policy.getMaxAge() * 1000;
+        }
+
+        if (cacheControl.getMaxAge() >= 0) {
+            return cacheControl.getMaxAge() * 1000;
+        }
+
+        Date expires = parseDate(headers.getValue(HttpHeader.EXPIRES));
+        if (expires != null) {
+            Date date = parseDate(headers.getValue(HttpHeader.DATE));
+            long dateTime = date != null ? date.getTime() : responseTime;
+            return Math.max(0, expires.getTime() - dateTime);
+        }
+
+        return 0;
+    }
+
+    private boolean matchesVaryHeaders(CacheEntry entry, HttpUriRequest request) {
+        Headers varyHeaders = entry.getVaryHeaders();
+
+        for (String name : getVaryHeaderNames(entry.getHeaders())) {
+            if (isClientAddedHeader(name)) {
+                return false;
+            }
+
+            Header header = request.getFirstHeader(name);
+            String requestValue = header != null ? header.getValue() : null;
+            String storedValue = varyHeaders.getValue(name);
+
+            if (requestValue == null ? storedValue != null : !requestValue.equals(storedValue)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static List<String> getVaryHeaderNames(Headers headers) {
+        List<String> result = new ArrayList<String>();
+
+        for (String value : headers.getValues(HttpHeader.VARY)) {
+            for (String name : value.split(",")) {
+                name = name.trim();
+                if (name.length() > 0) {
+                    result.add(name);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isClientAddedHeader(String name) {
+        for (String clientAddedHeader : CLIENT_ADDED_HEADERS) {
+            if (clientAddedHeader.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCacheableStatusCode(int statusCode) {
+        for (int cacheableStatusCode : CACHEABLE_STATUS_CODES) {
+            if (statusCode == cacheableStatusCode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Date parseDate(String value) {
+        Date result = null;
+
+        if (value != null) {
+            try {
+                result = DateUtils.parseDate(value);
+            } catch (DateParseException exc) {
+                Log.e(TAG, String.format("parseDate(): invalid date[%s]", value));
+            }
+        }
+
+        return result;
+    }
+
+    private static String getKey(HttpUriRequest request) {
+        return getKey(request.getMethod(), request);
+    }
+
+    private static String getKey(String method, HttpUriRequest request) {
+        return method.toUpperCase() + " " + request.getURI().toString();
+    }
+}
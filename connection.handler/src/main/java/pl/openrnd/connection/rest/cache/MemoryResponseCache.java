@@ -0,0 +1,94 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Response cache storage keeping entries in memory.
+ *
+ * Least recently used entries are evicted when size of all entries exceeds the limit.
+ */
+public class MemoryResponseCache implements ResponseCache {
+    private final long mMaxSize;
+    private final LinkedHashMap<String, CacheEntry> mEntries;
+    private long mSize;
+
+    /**
+     * Class constructor.
+     *
+     * @param maxSize Max number of bytes used by stored entries
+     */
+    public MemoryResponseCache(long maxSize) {
+        mMaxSize = maxSize;
+        mEntries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+    }
+
+    @Override
+    public synchronized CacheEntry get(String key) {
+        return mEntries.get(key);
+    }
+
+    @Override
+    public synchronized void put(String key, CacheEntry entry) {
+        remove(key);
+
+        long size = entry.getSize();
+        if (size <= mMaxSize) {
+            mEntries.put(key, entry);
+            mSize += size;
+
+            trimToSize(mMaxSize);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        CacheEntry entry = mEntries.remove(key);
+        if (entry != null) {
+            mSize -= entry.getSize();
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    @Override
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    private void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, CacheEntry>> iterator = mEntries.entrySet().iterator();
+        while ((mSize > maxSize) && iterator.hasNext()) {
+            mSize -= iterator.next().getValue().getSize();
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+/**
+ * Interface for storages of cached responses.
+ *
+ * Implementations must be thread-safe. They only store entries, freshness of entries
+ * is evaluated by HttpCache.
+ *
+ * @see pl.openrnd.connection.rest.cache.HttpCache
+ */
+public interface ResponseCache {
+
+    /**
+     * Gets entry stored under provided key.
+     *
+     * @param key Entry key
+     * @return CacheEntry object or null if not found
+     */
+    CacheEntry get(String key);
+
+    /**
+     * Stores entry under provided key, replacing the previous one.
+     *
+     * @param key Entry key
+     * @param entry CacheEntry object
+     */
+    void put(String key, CacheEntry entry);
+
+    /**
+     * Removes entry stored under provided key.
+     *
+     * @param key Entry key
+     */
+    void remove(String key);
+
+    /**
+     * Removes all entries.
+     */
+    void clear();
+
+    /**
+     * Gets number of bytes used by stored entries.
+     *
+     * @return Size in bytes
+     */
+    long getSize();
+
+    /**
+     * Gets max number of bytes that can be used by stored entries.
+     *
+     * @return Max size in bytes
+     */
+    long getMaxSize();
+}
@@ -0,0 +1,714 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * Response cache storage packing entries into a few large append-only segment files.
+ *
+ * Opening a file per entry gets expensive when the cache holds thousands of small responses.
+ * This storage appends each entry as a record to the current segment file and keeps an in-memory
+ * index of record locations. Records are read through MappedByteBuffer objects, so reading
+ * an entry does not open any file. When the current segment is full, a new one is started.
+ *
+ * Each record has the following format:
+ *
+ * <pre>
+ * int length     - length of the record body
+ * int checksum   - CRC32 of the record body
+ * body:
+ *   byte type    - PUT or REMOVE
+ *   int, bytes   - UTF-8 encoded key
+ *   bytes        - entry written by CacheEntryCodec (PUT records only)
+ * </pre>
+ *
+ * The index is rebuilt when the cache is opened by scanning all segments in order, so there is
+ * no separate journal. A record that can not be read (e.g. partially written during a crash) ends
+ * the segment and the segment file is truncated. Recency of reads is not persisted, after reopening
+ * least recently written entries are evicted first.
+ *
+ * Removed, replaced and evicted entries leave dead records in the segments. When less than half
+ * of a full segment is live, the segment is compacted on a background thread: its live records are
+ * copied to the current segment and the segment file is deleted.
+ */
+public class SegmentResponseCache implements ResponseCache {
+    private static final String TAG = SegmentResponseCache.class.getSimpleName();
+
+    private static final String SEGMENT_FILE_PREFIX = "segment.";
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final float COMPACTION_THRESHOLD = 0.5f;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ExecutorService sCompactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SegmentCompaction");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final int mSegmentSize;
+
+    private final LinkedHashMap<String, Location> mEntries = new LinkedHashMap<String, Location>(16, 0.75f, true);
+    private final TreeMap<Integer, Segment> mSegments = new TreeMap<Integer, Segment>();
+    private Segment mCurrentSegment;
+    private RandomAccessFile mCurrentFile;
+    private long mSize;
+    private boolean mIsOpened;
+    private boolean mIsCompactionScheduled;
+
+    /**
+     * Class constructor.
+     *
+     * @param directory Directory for segment files. It should not be used for other files.
+     * @param maxSize Max number of bytes used by stored entries
+     */
+    public SegmentResponseCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        mSegmentSize = (int)Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, maxSize / 8));
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        Location location;
+        int segmentId;
+        int offset;
+        ByteBuffer buffer;
+
+        synchronized (this) {
+            if (!open()) {
+                return null;
+            }
+
+            location = mEntries.get(key);
+            if (location == null) {
+                return null;
+            }
+
+            // Location may be changed by the compaction once the lock is released
+            segmentId = location.mSegmentId;
+            offset = location.mOffset;
+            buffer = getBuffer(segmentId, offset + location.mLength);
+        }
+
+        CacheEntry result = null;
+        try {
+            if (buffer == null) {
+                throw new IOException("Segment can not be mapped");
+            }
+
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(readRecordBody(buffer, offset)));
+            if ((input.readByte() != PUT) || !key.equals(readString(input))) {
+                throw new IOException("Invalid record");
+            }
+            // Remaining record body is known exactly, as it is read from a byte array
+            result = CacheEntryCodec.read(input, key, input.available());
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("get(): entry in segment[%d] at [%d] can not be read", segmentId, offset), exc);
+
+            synchronized (this) {
+                if (!location.mIsDead) {
+                    removeEntry(key);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) {
+        byte[] record;
+        try {
+            record = createRecord(PUT, key, entry);
+        } catch (IOException exc) {
+            Log.e(TAG, "put(): EXC", exc);
+            return;
+        }
+
+        synchronized (this) {
+            if (!open()) {
+                return;
+            }
+
+            Location location = appendRecord(record);
+            if (location != null) {
+                putEntry(key, location);
+                trimToSize();
+            } else {
+                removeEntry(key);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        if (open()) {
+            removeEntry(key);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (open()) {
+            closeCurrentSegment();
+
+            for (Location location : mEntries.values()) {
+                location.mIsDead = true;
+            }
+            for (Segment segment : mSegments.values()) {
+                deleteFile(getSegmentFile(segment.mId));
+            }
+            mSegments.clear();
+            mEntries.clear();
+            mSize = 0;
+        }
+    }
+
+    @Override
+    public synchronized long getSize() {
+        return open() ? mSize : 0;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    private boolean open() {
+        if (!mIsOpened) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                Log.e(TAG, String.format("open(): directory[%s] can not be created", mDirectory));
+                return false;
+            }
+
+            mEntries.clear();
+            mSegments.clear();
+            mSize = 0;
+
+            readSegments();
+            mIsOpened = true;
+
+            if (!mSegments.isEmpty() && (mSegments.lastEntry().getValue().mSize < mSegmentSize)) {
+                openCurrentSegment(mSegments.lastEntry().getValue());
+            }
+
+            trimToSize();
+
+            for (Segment segment : mSegments.values()) {
+                if (isCompactionNeeded(segment)) {
+                    scheduleCompaction();
+                    break;
+                }
+            }
+        }
+        return mIsOpened;
+    }
+
+    private void readSegments() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            Integer id = null;
+            if (file.getName().startsWith(SEGMENT_FILE_PREFIX)) {
+                try {
+                    id = Integer.parseInt(file.getName().substring(SEGMENT_FILE_PREFIX.length()));
+                } catch (NumberFormatException exc) {
+                    // Unknown file
+                }
+            }
+
+            if (id != null) {
+                mSegments.put(id, new Segment(id));
+            } else {
+                deleteFile(file);
+            }
+        }
+
+        for (Segment segment : new ArrayList<Segment>(mSegments.values())) {
+            readSegment(segment);
+        }
+    }
+
+    private void readSegment(Segment segment) {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(getSegmentFile(segment.mId), "rw");
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int offset = 0;
+            while (offset < buffer.limit()) {
+                int length = readRecord(segment, buffer, offset);
+                if (length < 0) {
+                    Log.e(TAG, String.format("readSegment(): segment[%d] truncated at [%d]", segment.mId, offset));
+
+                    channel.truncate(offset);
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, offset);
+                    break;
+                }
+                offset += length;
+            }
+
+            segment.mBuffer = buffer;
+            segment.mSize = offset;
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("readSegment(): segment[%d] can not be read", segment.mId), exc);
+
+            dropSegment(segment);
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    private int readRecord(Segment segment, ByteBuffer buffer, int offset) {
+        int length;
+        try {
+            byte[] body = readRecordBody(buffer, offset);
+            length = RECORD_HEADER_SIZE + body.length;
+
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+            byte type = input.readByte();
+            String key = readString(input);
+
+            if (type == PUT) {
+                segment.mSize = offset + length;
+                putEntry(key, new Location(segment.mId, offset, length));
+            } else if (type == REMOVE) {
+                removeEntry(key);
+            } else {
+                return -1;
+            }
+        } catch (IOException exc) {
+            return -1;
+        }
+
+        return length;
+    }
+
+    private void openCurrentSegment(Segment segment) {
+        try {
+            mCurrentFile = new RandomAccessFile(getSegmentFile(segment.mId), "rw");
+            mCurrentFile.setLength(segment.mSize);
+            mCurrentSegment = segment;
+        } catch (IOException exc) {
+            Log.e(TAG, String.format("openCurrentSegment(): segment[%d] can not be opened", segment.mId), exc);
+
+            closeCurrentSegment();
+        }
+    }
+
+    private void closeCurrentSegment() {
+        closeQuietly(mCurrentFile);
+        mCurrentFile = null;
+        mCurrentSegment = null;
+    }
+
+    private Location appendRecord(byte[] record) {
+        if ((mCurrentSegment == null) || ((mCurrentSegment.mSize > 0) && (mCurrentSegment.mSize + record.length > mSegmentSize))) {
+            closeCurrentSegment();
+
+            Segment segment = new Segment(mSegments.isEmpty() ? 0 : mSegments.lastKey() + 1);
+            mSegments.put(segment.mId, segment);
+            openCurrentSegment(segment);
+
+            if (mCurrentSegment == null) {
+                dropSegment(segment);
+                return null;
+            }
+        }
+
+        Segment segment = mCurrentSegment;
+        try {
+            FileChannel channel = mCurrentFile.getChannel();
+
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, segment.mSize + buffer.position());
+            }
+        } catch (IOException exc) {
+            Log.e(TAG, "appendRecord(): EXC", exc);
+
+            // Segment content is unknown, next record is written to a new one
+            closeCurrentSegment();
+            return null;
+        }
+
+        Location result = new Location(segment.mId, segment.mSize, record.length);
+        segment.mSize += record.length;
+        return result;
+    }
+
+    private ByteBuffer getBuffer(int segmentId, int size) {
+        Segment segment = mSegments.get(segmentId);
+        if (segment == null) {
+            return null;
+        }
+
+        if ((segment.mBuffer == null) || (segment.mBuffer.limit() < size)) {
+            // Current segment grows, so it is mapped again when reading beyond the mapped part
+            RandomAccessFile randomAccessFile = null;
+            try {
+                randomAccessFile = new RandomAccessFile(getSegmentFile(segmentId), "r");
+                segment.mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segment.mSize);
+            } catch (IOException exc) {
+                Log.e(TAG, String.format("getBuffer(): segment[%d] can not be mapped", segmentId), exc);
+                return null;
+            } finally {
+                closeQuietly(randomAccessFile);
+            }
+        }
+
+        return segment.mBuffer.duplicate();
+    }
+
+    private void putEntry(String key, Location location) {
+        Location previousLocation = mEntries.put(key, location);
+        if (previousLocation != null) {
+            onDeadRecord(previousLocation);
+        }
+
+        mSize += location.mLength;
+        mSegments.get(location.mSegmentId).mLiveSize += location.mLength;
+    }
+
+    private void removeEntry(String key) {
+        Location location = mEntries.remove(key);
+        if (location != null) {
+            onDeadRecord(location);
+
+            if (mIsOpened) {
+                try {
+                    appendRecord(createRecord(REMOVE, key, null));
+                } catch (IOException exc) {
+                    Log.e(TAG, "removeEntry(): EXC", exc);
+                }
+            }
+        }
+    }
+
+    private void onDeadRecord(Location location) {
+        location.mIsDead = true;
+        mSize -= location.mLength;
+
+        Segment segment = mSegments.get(location.mSegmentId);
+        if (segment != null) {
+            segment.mLiveSize -= location.mLength;
+
+            if (mIsOpened && isCompactionNeeded(segment)) {
+                scheduleCompaction();
+            }
+        }
+    }
+
+    private void trimToSize() {
+        while ((mSize > mMaxSize) && !mEntries.isEmpty()) {
+            removeEntry(mEntries.keySet().iterator().next());
+        }
+    }
+
+    private boolean isCompactionNeeded(Segment segment) {
+        return (segment != mCurrentSegment) && (segment.mLiveSize < segment.mSize * COMPACTION_THRESHOLD);
+    }
+
+    private void scheduleCompaction() {
+        if (!mIsCompactionScheduled) {
+            mIsCompactionScheduled = true;
+
+            sCompactionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * Compacts all segments, which live records take less than the threshold of their size.
+     *
+     * Method is called on the compaction thread. Records are copied one by one, so the cache
+     * can be used while the compaction is running.
+     */
+    private void compact() {
+        List<Segment> segments = new ArrayList<Segment>();
+
+        synchronized (this) {
+            mIsCompactionScheduled = false;
+
+            for (Segment segment : mSegments.values()) {
+                if (isCompactionNeeded(segment)) {
+                    segments.add(segment);
+                }
+            }
+        }
+
+        for (Segment segment : segments) {
+            compactSegment(segment);
+        }
+    }
+
+    private void compactSegment(Segment segment) {
+        Map<Integer, Location> liveLocations = new HashMap<Integer, Location>();
+        ByteBuffer buffer;
+
+        synchronized (this) {
+            if (mSegments.get(segment.mId) != segment) {
+                return;
+            }
+
+            // Iterating does not change the order of entries
+            for (Location location : mEntries.values()) {
+                if (location.mSegmentId == segment.mId) {
+                    liveLocations.put(location.mOffset, location);
+                }
+            }
+
+            buffer = getBuffer(segment.mId, segment.mSize);
+        }
+
+        Log.d(TAG, String.format("compactSegment(): segment[%d], size[%d], live size[%d]", segment.mId, segment.mSize, segment.mLiveSize));
+
+        int offset = 0;
+        while ((buffer != null) && (offset < buffer.limit())) {
+            byte[] body;
+            byte type;
+            String key;
+            try {
+                body = readRecordBody(buffer, offset);
+
+                DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+                type = input.readByte();
+                key = readString(input);
+            } catch (IOException exc) {
+                Log.e(TAG, String.format("compactSegment(): segment[%d] can not be read", segment.mId), exc);
+                break;
+            }
+
+            if (type == PUT) {
+                Location location = liveLocations.get(offset);
+                if (location != null) {
+                    copyEntry(segment, location, body);
+                }
+            } else {
+                copyRemoval(segment, key, body);
+            }
+
+            offset += RECORD_HEADER_SIZE + body.length;
+        }
+
+        synchronized (this) {
+            if (mSegments.get(segment.mId) != segment) {
+                return;
+            }
+
+            // Entries that could not be copied are dropped together with the segment
+            for (Location location : liveLocations.values()) {
+                if (!location.mIsDead && (location.mSegmentId == segment.mId)) {
+                    location.mIsDead = true;
+                    mSize -= location.mLength;
+                    mEntries.values().remove(location);
+                }
+            }
+
+            dropSegment(segment);
+        }
+    }
+
+    private synchronized void copyEntry(Segment segment, Location location, byte[] body) {
+        if (location.mIsDead || (mSegments.get(segment.mId) != segment)) {
+            return;
+        }
+
+        Location newLocation = appendRecord(createRecord(body));
+        if (newLocation != null) {
+            segment.mLiveSize -= location.mLength;
+            mSegments.get(newLocation.mSegmentId).mLiveSize += newLocation.mLength;
+
+            // Location object is updated in place, so the order of entries is not changed
+            location.mSegmentId = newLocation.mSegmentId;
+            location.mOffset = newLocation.mOffset;
+        }
+    }
+
+    private synchronized void copyRemoval(Segment segment, String key, byte[] body) {
+        // Removal is kept only while older segments may still contain the removed entry
+        if ((mSegments.get(segment.mId) == segment) && !mEntries.containsKey(key) && (mSegments.firstKey() < segment.mId)) {
+            appendRecord(createRecord(body));
+        }
+    }
+
+    private void dropSegment(Segment segment) {
+        if (segment == mCurrentSegment) {
+            closeCurrentSegment();
+        }
+
+        mSegments.remove(segment.mId);
+        deleteFile(getSegmentFile(segment.mId));
+    }
+
+    private File getSegmentFile(int id) {
+        return new File(mDirectory, SEGMENT_FILE_PREFIX + id);
+    }
+
+    private static byte[] createRecord(byte type, String key, CacheEntry entry) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(entry != null ? entry.getContent().length + 256 : 64);
+        DataOutputStream output = new DataOutputStream(body);
+        output.writeByte(type);
+        writeString(output, key);
+        if (entry != null) {
+            CacheEntryCodec.write(output, key, entry);
+        }
+        output.close();
+
+        return createRecord(body.toByteArray());
+    }
+
+    private static byte[] createRecord(byte[] body) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(body);
+
+        ByteBuffer result = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.length);
+        result.putInt(body.length);
+        result.putInt((int)crc32.getValue());
+        result.put(body);
+        return result.array();
+    }
+
+    private static byte[] readRecordBody(ByteBuffer buffer, int offset) throws IOException {
+        if (offset + RECORD_HEADER_SIZE > buffer.limit()) {
+            throw new IOException("Incomplete record");
+        }
+
+        int length = buffer.getInt(offset);
+        int checksum = buffer.getInt(offset + 4);
+        if ((length <= 0) || (length > buffer.limit() - offset - RECORD_HEADER_SIZE)) {
+            throw new IOException("Incomplete record");
+        }
+
+        byte[] result = new byte[length];
+        ByteBuffer input = buffer.duplicate();
+        input.position(offset + RECORD_HEADER_SIZE);
+        input.get(result);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(result);
+        if ((int)crc32.getValue() != checksum) {
+            throw new IOException("Invalid record checksum");
+        }
+
+        return result;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] data = value.getBytes(UTF_8);
+        output.writeInt(data.length);
+        output.write(data);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if ((length < 0) || (length > input.available())) {
+            throw new IOException("Invalid record");
+        }
+
+        byte[] data = new byte[length];
+        input.readFully(data);
+        return new String(data, UTF_8);
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, String.format("deleteFile(): file[%s] can not be deleted", file));
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException exc) {
+                Log.e(TAG, "closeQuietly(): EXC", exc);
+            }
+        }
+    }
+
+    private static class Segment {
+        final int mId;
+        int mSize;
+        long mLiveSize;
+        MappedByteBuffer mBuffer;
+
+        Segment(int id) {
+            mId = id;
+        }
+    }
+
+    private static class Location {
+        int mSegmentId;
+        int mOffset;
+        final int mLength;
+        boolean mIsDead;
+
+        Location(int segmentId, int offset, int length) {
+            mSegmentId = segmentId;
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+}
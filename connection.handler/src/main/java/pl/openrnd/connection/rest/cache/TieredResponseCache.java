@@ -0,0 +1,94 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cache;
+
+/**
+ * Response cache storage combining a fast first level storage (e.g. memory) with a larger
+ * second level storage (e.g. disk).
+ *
+ * Entries are written to both storages. Entries found only in the second level storage
+ * are copied to the first level one.
+ */
+public class TieredResponseCache implements ResponseCache {
+    private final ResponseCache mFirstLevel;
+    private final ResponseCache mSecondLevel;
+
+    /**
+     * Class constructor.
+     *
+     * @param firstLevel First level storage
+     * @param secondLevel Second level storage
+     */
+    public TieredResponseCache(ResponseCache firstLevel, ResponseCache secondLevel) {
+        mFirstLevel = firstLevel;
+        mSecondLevel = secondLevel;
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        CacheEntry result = mFirstLevel.get(key);
+
+        if (result == null) {
+            result = mSecondLevel.get(key);
+            if (result != null) {
+                mFirstLevel.put(key, result);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) {
+        mFirstLevel.put(key, entry);
+        mSecondLevel.put(key, entry);
+    }
+
+    @Override
+    public void remove(String key) {
+        mFirstLevel.remove(key);
+        mSecondLevel.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        mFirstLevel.clear();
+        mSecondLevel.clear();
+    }
+
+    /**
+     * Gets number of bytes used by entries in the second level storage, that contains all entries.
+     *
+     * @return Size in bytes
+     */
+    @Override
+    public long getSize() {
+        return mSecondLevel.getSize();
+    }
+
+    /**
+     * Gets max number of bytes that can be used by entries in the second level storage.
+     *
+     * @return Max size in bytes
+     */
+    @Override
+    public long getMaxSize() {
+        return mSecondLevel.getMaxSize();
+    }
+}
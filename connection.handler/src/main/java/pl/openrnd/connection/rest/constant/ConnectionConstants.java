@@ -18,6 +18,9 @@
 
 package pl.openrnd.connection.rest.constant;
 
+import pl.openrnd.connection.rest.cache.DiskCacheStorage;
+import pl.openrnd.connection.rest.cookie.CookieStorage;
+
 public final class ConnectionConstants {
 	private ConnectionConstants() {}
 	
@@ -26,8 +29,28 @@ public final class ConnectionConstants {
 	public static final int DEFAULT_HTTP_READ_TIMEOUT = 40000;
 	public static final int DEFAULT_LOG_SIZE = 50;
 	public static final boolean DEFAULT_LOG_STATE = false;
+	public static final int DEFAULT_LOG_CONTENT_CAPTURE_SIZE = 64 * 1024;
+	public static final int DEFAULT_ERROR_CONTENT_CAPTURE_SIZE = 16 * 1024;
 	
 	public static final boolean DEFAULT_USING_COOKIES = false;
+	public static final int NO_COOKIE_COUNT_LIMIT = 0;
+	public static final int DEFAULT_MAX_COOKIE_COUNT = NO_COOKIE_COUNT_LIMIT;
+	public static final CookieStorage DEFAULT_COOKIE_STORAGE = CookieStorage.SHARED_PREFERENCES;
+	public static final String COOKIE_JOURNAL_FILE = "connection-handler-cookies.journal";
+
+	public static final boolean DEFAULT_DUAL_STACK_RACING = false;
+	public static final int DEFAULT_CONNECTION_ATTEMPT_DELAY = 250;
+
+	public static final int DEFAULT_PARSE_THREAD_POOL_SIZE = 0;
+
+	public static final long NO_CONTENT_LENGTH_LIMIT = -1;
+	public static final long DEFAULT_MAX_CONTENT_LENGTH = NO_CONTENT_LENGTH_LIMIT;
+
+	public static final long DEFAULT_MEMORY_CACHE_SIZE = 0;
+	public static final long DEFAULT_DISK_CACHE_SIZE = 0;
+	public static final String DISK_CACHE_DIRECTORY = "connection-handler-cache";
+	public static final String SEGMENT_CACHE_DIRECTORY = "connection-handler-segments";
+	public static final DiskCacheStorage DEFAULT_DISK_CACHE_STORAGE = DiskCacheStorage.FILES;
 
 	@Deprecated
 	public final static boolean DEFAULT_FULL_ASYNC = false;
@@ -0,0 +1,207 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cookie;
+
+import com.loopj.android.http.PersistentCookieStore;
+
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.protocol.RequestAddCookies;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieOrigin;
+import org.apache.http.cookie.CookieSpec;
+import org.apache.http.cookie.CookieSpecRegistry;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Request interceptor adding cookies to requests, used instead of HttpClient's RequestAddCookies.
+ *
+ * When the context cookie store is a PersistentCookieStore, only cookies indexed under the
+ * request host and its parent domains are matched, instead of all stored cookies. Created cookie
+ * headers are cached per cookie origin (host, port, path and secure flag) until the cookie store
+ * changes or one of the sent cookies expires. Cookies sent from a cached header are still marked
+ * as used in the store, so they are not evicted when the store has a maximum number of cookies.
+ * Other cookie stores are handled by RequestAddCookies.
+ *
+ * Like RequestAddCookies, the interceptor sets the cookie spec and the cookie origin context
+ * attributes, that are needed for processing cookies of the response.
+ */
+public class CookieHeaderInterceptor implements HttpRequestInterceptor {
+    private static final int CACHE_SIZE = 64;
+
+    private final RequestAddCookies mDefaultInterceptor = new RequestAddCookies();
+
+    private final Map<String, CachedHeaders> mCache = new LinkedHashMap<String, CachedHeaders>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedHeaders> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private PersistentCookieStore mCacheCookieStore;
+    private int mCacheModificationCount;
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+        CookieStore cookieStore = (CookieStore) context.getAttribute(ClientContext.COOKIE_STORE);
+        CookieSpecRegistry registry = (CookieSpecRegistry) context.getAttribute(ClientContext.COOKIESPEC_REGISTRY);
+        HttpHost targetHost = (HttpHost) context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+        ManagedClientConnection connection = (ManagedClientConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+
+        if (!(cookieStore instanceof PersistentCookieStore) || (registry == null) || (targetHost == null) || (connection == null)) {
+            mDefaultInterceptor.process(request, context);
+            return;
+        }
+
+        URI uri;
+        if (request instanceof HttpUriRequest) {
+            uri = ((HttpUriRequest) request).getURI();
+        } else {
+            try {
+                uri = new URI(request.getRequestLine().getUri());
+            } catch (URISyntaxException exc) {
+                throw new ProtocolException(String.format("Invalid request URI: %s", request.getRequestLine().getUri()), exc);
+            }
+        }
+
+        String host = targetHost.getHostName();
+        int port = targetHost.getPort();
+        if (port < 0) {
+            port = connection.getRemotePort();
+        }
+        String path = uri.getPath();
+        if ((path == null) || path.isEmpty()) {
+            path = "/";
+        }
+
+        String policy = HttpClientParams.getCookiePolicy(request.getParams());
+        CookieSpec cookieSpec = registry.getCookieSpec(policy, request.getParams());
+        CookieOrigin cookieOrigin = new CookieOrigin(host, port, path, connection.isSecure());
+
+        context.setAttribute(ClientContext.COOKIE_SPEC, cookieSpec);
+        context.setAttribute(ClientContext.COOKIE_ORIGIN, cookieOrigin);
+
+        for (Header header : getHeaders((PersistentCookieStore) cookieStore, policy, cookieSpec, cookieOrigin)) {
+            request.addHeader(header);
+        }
+    }
+
+    private List<Header> getHeaders(PersistentCookieStore cookieStore, String policy, CookieSpec cookieSpec, CookieOrigin cookieOrigin) {
+        String key = String.format(Locale.US, "%s %s %s:%d%s", policy, cookieOrigin.isSecure() ? "https" : "http",
+                cookieOrigin.getHost(), cookieOrigin.getPort(), cookieOrigin.getPath());
+        long now = System.currentTimeMillis();
+
+        synchronized (mCache) {
+            int modificationCount = cookieStore.getModificationCount();
+            if ((cookieStore != mCacheCookieStore) || (modificationCount != mCacheModificationCount)) {
+                mCache.clear();
+                mCacheCookieStore = cookieStore;
+                mCacheModificationCount = modificationCount;
+            }
+
+            CachedHeaders cachedHeaders = mCache.get(key);
+            if ((cachedHeaders != null) && (now < cachedHeaders.mExpiryTime)) {
+                cookieStore.touchCookies(cachedHeaders.mCookies);
+                return cachedHeaders.mHeaders;
+            }
+        }
+
+        int modificationCount = cookieStore.getModificationCount();
+        CachedHeaders cachedHeaders = createHeaders(cookieStore.getCookies(cookieOrigin.getHost(), cookieOrigin.getPath(), cookieOrigin.isSecure()),
+                cookieSpec, cookieOrigin, new Date(now));
+
+        synchronized (mCache) {
+            // Headers created from older cookies are not cached
+            if ((cookieStore == mCacheCookieStore) && (modificationCount == mCacheModificationCount)) {
+                mCache.put(key, cachedHeaders);
+            }
+        }
+
+        return cachedHeaders.mHeaders;
+    }
+
+    private static CachedHeaders createHeaders(List<Cookie> cookies, CookieSpec cookieSpec, CookieOrigin cookieOrigin, Date now) {
+        List<Cookie> matchedCookies = new ArrayList<Cookie>(cookies.size());
+        long expiryTime = Long.MAX_VALUE;
+
+        for (Cookie cookie : cookies) {
+            if (!cookie.isExpired(now) && cookieSpec.match(cookie, cookieOrigin)) {
+                matchedCookies.add(cookie);
+
+                Date expiryDate = cookie.getExpiryDate();
+                if (expiryDate != null) {
+                    expiryTime = Math.min(expiryTime, expiryDate.getTime());
+                }
+            }
+        }
+
+        List<Header> headers = new ArrayList<Header>();
+        if (!matchedCookies.isEmpty()) {
+            headers.addAll(cookieSpec.formatCookies(matchedCookies));
+        }
+
+        // Same as in RequestAddCookies, version header is sent when a cookie has an other version than the spec
+        int version = cookieSpec.getVersion();
+        if (version > 0) {
+            for (Cookie cookie : matchedCookies) {
+                if (version != cookie.getVersion()) {
+                    Header header = cookieSpec.getVersionHeader();
+                    if (header != null) {
+                        headers.add(header);
+                    }
+                    break;
+                }
+            }
+        }
+
+        return new CachedHeaders(Collections.unmodifiableList(headers), matchedCookies, expiryTime);
+    }
+
+    private static class CachedHeaders {
+        private final List<Header> mHeaders;
+        private final List<Cookie> mCookies;
+        private final long mExpiryTime;
+
+        private CachedHeaders(List<Header> headers, List<Cookie> cookies, long expiryTime) {
+            mHeaders = headers;
+            mCookies = cookies;
+            mExpiryTime = expiryTime;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cookie;
+
+/**
+ * Persistence backend of cookies.
+ *
+ * @see pl.openrnd.connection.rest.ConnectionConfig.Builder#cookieStorage(CookieStorage)
+ */
+public enum CookieStorage {
+    /**
+     * Cookies are not stored, they are lost when the application is closed (MemoryCookiePersistence).
+     */
+    MEMORY,
+
+    /**
+     * Cookies are stored in SharedPreferences (SharedPreferencesCookiePersistence). Every write
+     * rewrites the whole preferences file.
+     */
+    SHARED_PREFERENCES,
+
+    /**
+     * Cookie changes are appended to a journal file, that is compacted from time to time
+     * (JournalCookiePersistence). Suitable for large cookie jars.
+     */
+    JOURNAL
+}
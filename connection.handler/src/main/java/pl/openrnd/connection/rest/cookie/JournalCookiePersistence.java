@@ -0,0 +1,419 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cookie;
+
+import android.util.Log;
+
+import com.loopj.android.http.CookiePersistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Cookie persistence appending cookie changes to a journal file.
+ *
+ * Each changed cookie is written as a single record appended to the end of the file, so the cost
+ * of a write does not depend on the number of stored cookies. The file starts with a header
+ * (magic number and format version) followed by records in the following format:
+ *
+ * <pre>
+ * int length     - length of the record body
+ * int checksum   - CRC32 of the record body
+ * body:
+ *   byte type    - PUT or REMOVE
+ *   int, bytes   - UTF-8 encoded cookie name
+ *   int, bytes   - UTF-8 encoded cookie (PUT records only)
+ * </pre>
+ *
+ * Records are replayed in order when the journal is loaded. An incomplete record at the end of
+ * the file (e.g. partially written during a crash) is truncated, so only the last write can be lost.
+ * A damaged record followed by valid ones is skipped, reading continues from the next record with
+ * a valid checksum and the journal is rewritten without the damaged data. A journal that can not be
+ * read at all (unknown format or read error) is renamed with ".bad" suffix and a new one is started.
+ * When the journal holds more than twice as many records as there are stored cookies, it is
+ * compacted: live cookies are written to a temporary file that replaces the journal.
+ */
+public class JournalCookiePersistence implements CookiePersistence {
+    private static final String TAG = JournalCookiePersistence.class.getSimpleName();
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String BAD_SUFFIX = ".bad";
+
+    private static final int MAGIC = 0x434f4f4b;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private static final int JOURNAL_VALID = 0;
+    private static final int JOURNAL_DAMAGED = 1;
+    private static final int JOURNAL_UNREADABLE = 2;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MIN_COMPACTION_RECORDS = 256;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+
+    private final Map<String, String> mEntries = new LinkedHashMap<String, String>();
+    private RandomAccessFile mJournalFile;
+    private long mJournalSize;
+    private int mRecordCount;
+
+    /**
+     * Class constructor.
+     *
+     * @param file Journal file
+     */
+    public JournalCookiePersistence(File file) {
+        mFile = file;
+    }
+
+    @Override
+    public Map<String, String> load() {
+        closeQuietly(mJournalFile);
+        mJournalFile = null;
+        mEntries.clear();
+        mJournalSize = 0;
+        mRecordCount = 0;
+
+        if (!mFile.exists()) {
+            compact();
+            return new LinkedHashMap<String, String>(mEntries);
+        }
+
+        switch (readJournal()) {
+            case JOURNAL_VALID:
+                if (isCompactionNeeded()) {
+                    compact();
+                }
+                break;
+
+            case JOURNAL_DAMAGED:
+                compact();
+                break;
+
+            default:
+                // Journal is kept for inspection instead of being overwritten by the new one
+                mEntries.clear();
+                mRecordCount = 0;
+                moveAside();
+                compact();
+                break;
+        }
+
+        return new LinkedHashMap<String, String>(mEntries);
+    }
+
+    @Override
+    public boolean write(Map<String, String> changes) {
+        if (mJournalFile == null) {
+            // Journal without a valid header is written again before appending
+            if (mJournalSize < HEADER_SIZE) {
+                compact();
+            } else {
+                openJournal();
+            }
+
+            if (mJournalFile == null) {
+                return false;
+            }
+        }
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream(changes.size() * 128);
+        try {
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                records.write(createRecord(change.getKey(), change.getValue()));
+            }
+
+            mJournalFile.seek(mJournalSize);
+            mJournalFile.write(records.toByteArray());
+            mJournalFile.getFD().sync();
+        } catch (IOException exc) {
+            Log.e(TAG, "write(): EXC", exc);
+
+            // Partially written records are dropped, so next records are appended after the last valid one
+            try {
+                mJournalFile.setLength(mJournalSize);
+            } catch (IOException truncateExc) {
+                Log.e(TAG, "write(): journal can not be truncated", truncateExc);
+                closeQuietly(mJournalFile);
+                mJournalFile = null;
+            }
+            return false;
+        }
+
+        mJournalSize += records.size();
+        mRecordCount += changes.size();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                mEntries.put(change.getKey(), change.getValue());
+            } else {
+                mEntries.remove(change.getKey());
+            }
+        }
+
+        if (isCompactionNeeded()) {
+            compact();
+        }
+        return true;
+    }
+
+    private int readJournal() {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(mFile, "rw");
+            byte[] data = new byte[(int)randomAccessFile.length()];
+            randomAccessFile.readFully(data);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+
+            if ((data.length < HEADER_SIZE) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+                Log.e(TAG, "readJournal(): unknown journal format");
+                return JOURNAL_UNREADABLE;
+            }
+
+            int result = JOURNAL_VALID;
+            int offset = HEADER_SIZE;
+            int validSize = HEADER_SIZE;
+            while (offset < data.length) {
+                int length = readRecord(buffer, offset);
+                if (length > 0) {
+                    offset += length;
+                    validSize = offset;
+                    ++mRecordCount;
+                    continue;
+                }
+
+                int nextOffset = findRecord(buffer, offset + 1);
+                if (nextOffset < 0) {
+                    Log.e(TAG, String.format("readJournal(): journal truncated at [%d]", validSize));
+                    break;
+                }
+
+                Log.e(TAG, String.format("readJournal(): damaged data skipped at [%d-%d]", offset, nextOffset));
+                result = JOURNAL_DAMAGED;
+                offset = nextOffset;
+            }
+
+            if (validSize < data.length) {
+                randomAccessFile.setLength(validSize);
+            }
+
+            mJournalFile = randomAccessFile;
+            mJournalSize = validSize;
+            randomAccessFile = null;
+            return result;
+        } catch (IOException exc) {
+            Log.e(TAG, "readJournal(): EXC", exc);
+            return JOURNAL_UNREADABLE;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    private static int findRecord(ByteBuffer buffer, int offset) {
+        for (int result = offset; result + RECORD_HEADER_SIZE < buffer.limit(); ++result) {
+            if (getRecordLength(buffer, result) > 0) {
+                return result;
+            }
+        }
+        return -1;
+    }
+
+    private static int getRecordLength(ByteBuffer buffer, int offset) {
+        if (offset + RECORD_HEADER_SIZE > buffer.limit()) {
+            return -1;
+        }
+
+        int length = buffer.getInt(offset);
+        int checksum = buffer.getInt(offset + 4);
+        if ((length <= 0) || (length > buffer.limit() - offset - RECORD_HEADER_SIZE)) {
+            return -1;
+        }
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), offset + RECORD_HEADER_SIZE, length);
+        if ((int)crc32.getValue() != checksum) {
+            return -1;
+        }
+
+        return length;
+    }
+
+    private int readRecord(ByteBuffer buffer, int offset) {
+        int length = getRecordLength(buffer, offset);
+        if (length < 0) {
+            return -1;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer.array(), offset + RECORD_HEADER_SIZE, length));
+            byte type = input.readByte();
+            String name = readString(input);
+
+            if (type == PUT) {
+                mEntries.put(name, readString(input));
+            } else if (type == REMOVE) {
+                mEntries.remove(name);
+            } else {
+                return -1;
+            }
+        } catch (IOException exc) {
+            return -1;
+        }
+
+        return RECORD_HEADER_SIZE + length;
+    }
+
+    private void moveAside() {
+        File badFile = new File(mFile.getPath() + BAD_SUFFIX);
+        deleteFile(badFile);
+        if (!mFile.renameTo(badFile)) {
+            Log.e(TAG, String.format("moveAside(): file[%s] can not be renamed", mFile));
+        }
+    }
+
+    private boolean openJournal() {
+        try {
+            mJournalFile = new RandomAccessFile(mFile, "rw");
+            mJournalFile.setLength(mJournalSize);
+            return true;
+        } catch (IOException exc) {
+            Log.e(TAG, "openJournal(): EXC", exc);
+            closeQuietly(mJournalFile);
+            mJournalFile = null;
+            return false;
+        }
+    }
+
+    private boolean isCompactionNeeded() {
+        return (mRecordCount >= MIN_COMPACTION_RECORDS) && (mRecordCount > 2 * mEntries.size());
+    }
+
+    private void compact() {
+        File directory = mFile.getParentFile();
+        if ((directory != null) && !directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, String.format("compact(): directory[%s] can not be created", directory));
+            return;
+        }
+
+        File tmpFile = new File(mFile.getPath() + TMP_SUFFIX);
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(HEADER_SIZE + mEntries.size() * 128);
+            DataOutputStream output = new DataOutputStream(data);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            for (Map.Entry<String, String> entry : mEntries.entrySet()) {
+                output.write(createRecord(entry.getKey(), entry.getValue()));
+            }
+            output.close();
+
+            randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+            randomAccessFile.setLength(0);
+            randomAccessFile.write(data.toByteArray());
+            randomAccessFile.getFD().sync();
+            randomAccessFile.close();
+            randomAccessFile = null;
+
+            closeQuietly(mJournalFile);
+            mJournalFile = null;
+
+            if (!tmpFile.renameTo(mFile)) {
+                throw new IOException("Journal file can not be replaced");
+            }
+
+            mJournalSize = data.size();
+            mRecordCount = mEntries.size();
+            openJournal();
+        } catch (IOException exc) {
+            Log.e(TAG, "compact(): EXC", exc);
+            deleteFile(tmpFile);
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    private static byte[] createRecord(String name, String value) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(value != null ? value.length() + 64 : 64);
+        DataOutputStream output = new DataOutputStream(body);
+        output.writeByte(value != null ? PUT : REMOVE);
+        writeString(output, name);
+        if (value != null) {
+            writeString(output, value);
+        }
+        output.close();
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(body.toByteArray());
+
+        ByteBuffer result = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.size());
+        result.putInt(body.size());
+        result.putInt((int)crc32.getValue());
+        result.put(body.toByteArray());
+        return result.array();
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] data = value.getBytes(UTF_8);
+        output.writeInt(data.length);
+        output.write(data);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if ((length < 0) || (length > input.available())) {
+            throw new IOException("Invalid record");
+        }
+
+        byte[] data = new byte[length];
+        input.readFully(data);
+        return new String(data, UTF_8);
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, String.format("deleteFile(): file[%s] can not be deleted", file));
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException exc) {
+                Log.e(TAG, "closeQuietly(): EXC", exc);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.cookie;
+
+import com.loopj.android.http.CookiePersistence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cookie persistence that does not store cookies. Cookies are kept only in memory
+ * of the cookie store and are lost when the application is closed.
+ */
+public class MemoryCookiePersistence implements CookiePersistence {
+
+    @Override
+    public Map<String, String> load() {
+        return new HashMap<String, String>();
+    }
+
+    @Override
+    public boolean write(Map<String, String> changes) {
+        return true;
+    }
+}
@@ -0,0 +1,198 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.data;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable list of http headers with case-insensitive lookup by name.
+ *
+ * Names and values are kept in a single array. Index used for lookups is built on the first lookup,
+ * so creating the object is cheap and lookups do not require scanning all headers nor any allocation.
+ *
+ * @see pl.openrnd.connection.rest.data.HttpHeader
+ */
+public final class Headers implements Serializable {
+    private static final long serialVersionUID = 3108419240517936574L;
+
+    private static final String[] EMPTY_VALUES = new String[0];
+
+    private final String[] mNamesAndValues;
+    private transient volatile Map<String, String[]> mIndex;
+
+    /**
+     * Class constructor.
+     *
+     * @param headers Headers array, can be null.
+     */
+    public Headers(Header[] headers) {
+        int size = headers != null ? headers.length : 0;
+
+        mNamesAndValues = new String[size * 2];
+        for (int i = 0; i < size; ++i) {
+            mNamesAndValues[i * 2] = headers[i].getName();
+            mNamesAndValues[i * 2 + 1] = headers[i].getValue();
+        }
+    }
+
+    private Headers(String[] namesAndValues) {
+        mNamesAndValues = namesAndValues;
+    }
+
+    /**
+     * Creates Headers object from alternating header names and values.
+     *
+     * @param namesAndValues Header names and values, e.g. ("Content-Type", "text/plain", "ETag", "\"1\"")
+     * @return Headers object
+     */
+    public static Headers of(String... namesAndValues) {
+        if ((namesAndValues.length % 2) != 0) {
+            throw new IllegalArgumentException("Expected alternating header names and values");
+        }
+        return new Headers(namesAndValues.clone());
+    }
+
+    /**
+     * Gets number of headers.
+     *
+     * @return Number of headers.
+     */
+    public int size() {
+        return mNamesAndValues.length / 2;
+    }
+
+    /**
+     * Gets name of header at provided position.
+     *
+     * @param index Header position.
+     * @return Header name.
+     */
+    public String getName(int index) {
+        return mNamesAndValues[index * 2];
+    }
+
+    /**
+     * Gets value of header at provided position.
+     *
+     * @param index Header position.
+     * @return Header value.
+     */
+    public String getValue(int index) {
+        return mNamesAndValues[index * 2 + 1];
+    }
+
+    /**
+     * Gets value of the first header with provided name.
+     *
+     * @param name Header name. Case is ignored.
+     * @return Header value or null if header with provided name is not found.
+     */
+    public String getValue(String name) {
+        String[] values = getIndex().get(name);
+        return values != null ? values[0] : null;
+    }
+
+    /**
+     * Gets values of all headers with provided name.
+     *
+     * @param name Header name. Case is ignored.
+     * @return List of header values in order of appearance. Empty list if header with provided name is not found.
+     */
+    public List<String> getValues(String name) {
+        String[] values = getIndex().get(name);
+        return Collections.unmodifiableList(Arrays.asList(values != null ? values : EMPTY_VALUES));
+    }
+
+    /**
+     * Gets information if header with provided name is present.
+     *
+     * @param name Header name. Case is ignored.
+     * @return True if header is present, false otherwise.
+     */
+    public boolean contains(String name) {
+        return getIndex().containsKey(name);
+    }
+
+    /**
+     * Creates array of org.apache.http.Header objects with the same headers.
+     *
+     * @return Array of headers
+     */
+    public Header[] toHeaderArray() {
+        Header[] result = new Header[size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = new BasicHeader(getName(i), getValue(i));
+        }
+        return result;
+    }
+
+    /**
+     * Creates new Headers object with the same headers, except the ones with provided names
+     * that are replaced by headers from provided object.
+     *
+     * Headers not present in this object are added.
+     *
+     * @param headers Headers object with replacing headers.
+     * @return New Headers object.
+     */
+    public Headers replace(Headers headers) {
+        List<String> result = new ArrayList<String>(mNamesAndValues.length + headers.mNamesAndValues.length);
+
+        for (int i = 0; i < mNamesAndValues.length; i += 2) {
+            if (!headers.contains(mNamesAndValues[i])) {
+                result.add(mNamesAndValues[i]);
+                result.add(mNamesAndValues[i + 1]);
+            }
+        }
+        result.addAll(Arrays.asList(headers.mNamesAndValues));
+
+        return new Headers(result.toArray(new String[result.size()]));
+    }
+
+    private Map<String, String[]> getIndex() {
+        Map<String, String[]> result = mIndex;
+        if (result == null) {
+            result = new TreeMap<String, String[]>(String.CASE_INSENSITIVE_ORDER);
+
+            for (int i = 0; i < mNamesAndValues.length; i += 2) {
+                String name = mNamesAndValues[i];
+                String[] values = result.get(name);
+                if (values == null) {
+                    values = new String[] { mNamesAndValues[i + 1] };
+                } else {
+                    values = Arrays.copyOf(values, values.length + 1);
+                    values[values.length - 1] = mNamesAndValues[i + 1];
+                }
+                result.put(name, values);
+            }
+
+            mIndex = result;
+        }
+        return result;
+    }
+}
@@ -22,7 +22,11 @@ public interface HttpStatusCode {
 	public static final int SUCCESS_200_OK = 200;
 	public static final int SUCCESS_201_CREATED = 201;
 	public static final int SUCCESS_202_ACCEPTED = 202;
+	public static final int SUCCESS_203_NON_AUTHORITATIVE_INFORMATION = 203;
 	public static final int SUCCESS_204_NO_CONTENT = 204;
+	public static final int SUCCESS_206_PARTIAL_CONTENT = 206;
+	public static final int REDIRECT_300_MULTIPLE_CHOICES = 300;
+	public static final int REDIRECT_301_MOVED_PERMANENTLY = 301;
 	public static final int REDIRECT_303_SEE_OTHER = 303;
     public static final int REDIRECT_304_NOT_MODIFIED = 304;
 	public static final int CLIENT_ERROR_400_BAD_REQUEST = 400;
@@ -31,6 +35,8 @@ public interface HttpStatusCode {
 	public static final int CLIENT_ERROR_404_NOT_FOUND = 404;
 	public static final int CLIENT_ERROR_406_NOT_ACCEPTABLE = 406;
 	public static final int CLIENT_ERROR_409_CONFLICT = 409;
+	public static final int CLIENT_ERROR_410_GONE = 410;
+	public static final int CLIENT_ERROR_416_RANGE_NOT_SATISFIABLE = 416;
 	public static final int SERVER_ERROR_500_INTERNAL_SERVER_ERROR = 500;
 	public static final int SERVER_ERROR_501_NOT_IMPLEMENTED = 501;
 }
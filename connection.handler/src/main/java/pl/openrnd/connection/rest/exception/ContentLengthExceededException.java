@@ -0,0 +1,67 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.exception;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown by ConnectionHandler when response entity content is longer than allowed.
+ *
+ * When the exception is thrown, reading of the content is stopped and the connection is closed.
+ *
+ * @see pl.openrnd.connection.rest.ConnectionConfig.Builder#maxContentLength(Long)
+ * @see pl.openrnd.connection.rest.request.Request#setMaxContentLength(long)
+ */
+public class ContentLengthExceededException extends IOException {
+    private static final long serialVersionUID = 2940271655392841153L;
+
+    private long mMaxContentLength;
+    private long mContentLength;
+
+    /**
+     * Class constructor
+     *
+     * @param maxContentLength Max allowed content length in bytes
+     * @param contentLength Declared content length in bytes or -1 if content length was exceeded while reading
+     */
+    public ContentLengthExceededException(long maxContentLength, long contentLength) {
+        super(String.format("ContentLengthExceededException: %d/%d", contentLength, maxContentLength));
+
+        mMaxContentLength = maxContentLength;
+        mContentLength = contentLength;
+    }
+
+    /**
+     * Gets max allowed content length
+     *
+     * @return Max allowed content length in bytes
+     */
+    public long getMaxContentLength() {
+        return mMaxContentLength;
+    }
+
+    /**
+     * Gets declared content length
+     *
+     * @return Declared content length in bytes or -1 if content length was exceeded while reading
+     */
+    public long getContentLength() {
+        return mContentLength;
+    }
+}
@@ -18,38 +18,103 @@
 
 package pl.openrnd.connection.rest.exception;
 
+import android.util.Log;
+
 import org.apache.http.Header;
+import org.apache.http.util.ByteArrayBuffer;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
+import pl.openrnd.connection.rest.constant.ConnectionConstants;
+import pl.openrnd.connection.rest.data.Headers;
+import pl.openrnd.connection.rest.data.HttpHeader;
 import pl.openrnd.connection.rest.utils.Utils;
 
 /**
  * Exception thrown by ConnectionHandler where server returns status code.
  *
+ * Response entity content is captured only up to the limit set in ConnectionConfig and
+ * is decoded on the first getContent() call.
+ *
  * @see pl.openrnd.connection.rest.request.Request
  * @see pl.openrnd.connection.rest.response.Response
+ * @see pl.openrnd.connection.rest.ConnectionConfig.Builder#errorContentCaptureSize(int)
  */
 public class UnsupportedResponseException extends Exception {
 	private static final long serialVersionUID = -5776937298456362123L;
+	private static final String TAG = UnsupportedResponseException.class.getSimpleName();
 	
 	private Integer mHttpStatusCode;
 	private String mHttpReasonPhrase;
 	private Header[] mHeaders;
+	private Headers mResponseHeaders;
+	private byte[] mContentData;
+	private boolean mIsContentTruncated;
 	private String mContent;
 
     /**
      * Class constructor
      *
+     * Response entity content is read up to the default capture limit.
+     *
      * @param statusCode Server response status code
      * @param reasonPhrase Server response reason phrase
      * @param headers Server response headers
      * @param entityInputStream Opened input stream to response content entity. No need to close it.
      */
 	public UnsupportedResponseException(Integer statusCode, String reasonPhrase, Header[] headers, InputStream entityInputStream) {
+		this(statusCode, reasonPhrase, headers, null, false);
+
+		if (entityInputStream != null) {
+			try {
+				ByteArrayBuffer buffer = Utils.readAtMost(entityInputStream, ConnectionConstants.DEFAULT_ERROR_CONTENT_CAPTURE_SIZE);
+				setContentData(buffer, ConnectionConstants.DEFAULT_ERROR_CONTENT_CAPTURE_SIZE);
+			} catch (IOException exc) {
+				Log.e(TAG, "UnsupportedResponseException(): EXC", exc);
+			}
+		}
+	}
+
+    /**
+     * Class constructor
+     *
+     * @param statusCode Server response status code
+     * @param reasonPhrase Server response reason phrase
+     * @param headers Server response headers
+     * @param contentData Captured response entity content or null if not captured
+     * @param isContentTruncated True if captured content is only the beginning of response entity content
+     */
+	public UnsupportedResponseException(Integer statusCode, String reasonPhrase, Header[] headers, byte[] contentData, boolean isContentTruncated) {
 		super(String.format("UnsupportedResponseException: %d/%s", statusCode, reasonPhrase));
-		
-		mContent = Utils.streamToString(entityInputStream);
+
+		mHttpStatusCode = statusCode;
+		mHttpReasonPhrase = reasonPhrase;
+		mHeaders = headers;
+		mContentData = contentData;
+		mIsContentTruncated = isContentTruncated;
+	}
+
+    /**
+     * Creates exception with content captured from provided buffer.
+     *
+     * @param statusCode Server response status code
+     * @param reasonPhrase Server response reason phrase
+     * @param headers Server response headers
+     * @param buffer Buffer returned by Utils.readAtMost() called with provided capture size
+     * @param captureSize Max number of captured bytes
+     * @return UnsupportedResponseException object
+     */
+	public static UnsupportedResponseException create(Integer statusCode, String reasonPhrase, Header[] headers, ByteArrayBuffer buffer, int captureSize) {
+		UnsupportedResponseException result = new UnsupportedResponseException(statusCode, reasonPhrase, headers, null, false);
+		result.setContentData(buffer, captureSize);
+		return result;
+	}
+
+	private void setContentData(ByteArrayBuffer buffer, int captureSize) {
+		mIsContentTruncated = buffer.length() > captureSize;
+		mContentData = Arrays.copyOf(buffer.buffer(), Math.min(buffer.length(), captureSize));
 	}
 
     /**
@@ -79,11 +144,49 @@ public class UnsupportedResponseException extends Exception {
 		return mHeaders;
 	}
 
+    /**
+     * Gets server response header
+     *
+     * @param headerKey Header key name
+     * @return Header value or null if header with provided key is not found
+     */
+	public String getHeaderValue(String headerKey) {
+		if (mResponseHeaders == null) {
+			mResponseHeaders = new Headers(mHeaders);
+		}
+		return mResponseHeaders.getValue(headerKey);
+	}
+
+    /**
+     * Gets captured response entity content
+     *
+     * @return Captured response entity content or null if content was not captured
+     */
+	public byte[] getContentData() {
+		return mContentData != null ? mContentData.clone() : null;
+	}
+
+    /**
+     * Gets information if captured content is only the beginning of response entity content
+     *
+     * @return True if response entity content was longer than the capture limit, false otherwise
+     */
+	public boolean isContentTruncated() {
+		return mIsContentTruncated;
+	}
+
     /**
      * Gets response entity content as a String object
-     * @return Response entity content as a String object
+     *
+     * Content is decoded on the first call with the charset declared in Content-Type header.
+     *
+     * @return Captured response entity content as a String object or null if content was not captured
      */
-	public String getContent() {
+	public synchronized String getContent() {
+		if ((mContent == null) && (mContentData != null)) {
+			String charsetName = Utils.getContentCharset(getHeaderValue(HttpHeader.CONTENT_TYPE));
+			mContent = Utils.bytesToString(mContentData, 0, mContentData.length, charsetName);
+		}
 		return mContent;
 	}
 	
@@ -0,0 +1,93 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.request;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.io.File;
+
+import pl.openrnd.connection.rest.constant.ConnectionConstants;
+import pl.openrnd.connection.rest.data.HttpHeader;
+import pl.openrnd.connection.rest.response.FileDownloadResponse;
+
+/**
+ * Request that downloads resource into a file.
+ *
+ * If the file was partially downloaded before and validator of the resource is known,
+ * the request asks only for the missing part using Range and If-Range headers. Headers are computed
+ * each time the request is executed, so the same request object can be executed again after
+ * a broken download.
+ * If the resource has changed in the meantime, server returns the whole content.
+ *
+ * Content length limit set in ConnectionConfig is not applied to the request by default.
+ *
+ * @see pl.openrnd.connection.rest.response.FileDownloadResponse
+ */
+public class FileDownloadRequest extends Request {
+    private final File mFile;
+
+    /**
+     * Class constructor.
+     *
+     * @param uri Uri of the resource to be downloaded.
+     * @param file File in which the resource is stored.
+     */
+    public FileDownloadRequest(String uri, File file) {
+        super(FileDownloadResponse.class, uri);
+
+        mFile = file;
+        setResponseFactory(new FileDownloadResponse.Factory(file));
+
+        setMaxContentLength(ConnectionConstants.NO_CONTENT_LENGTH_LIMIT);
+    }
+
+    @Override
+    public void onBeforeExecute() {
+        // Range is computed for each execution, so executing the request again resumes from the current file length
+        removeHeader(HttpHeader.RANGE);
+        removeHeader(HttpHeader.IF_RANGE);
+
+        String validator = FileDownloadResponse.readValidator(mFile);
+        long length = mFile.length();
+        if ((length > 0) && (validator != null)) {
+            addHeader(HttpHeader.RANGE, String.format("bytes=%d-", length));
+            addHeader(HttpHeader.IF_RANGE, validator);
+        }
+    }
+
+    @Override
+    protected HttpUriRequest onHttpUriRequestCreate(Object... params) {
+        return new HttpGet((String)params[0]);
+    }
+
+    @Override
+    public boolean supportsContentBuffering() {
+        return false;
+    }
+
+    /**
+     * Gets file in which the resource is stored.
+     *
+     * @return File object.
+     */
+    public File getFile() {
+        return mFile;
+    }
+}
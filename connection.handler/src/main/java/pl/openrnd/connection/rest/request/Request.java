@@ -25,26 +25,36 @@ import org.apache.http.client.methods.HttpUriRequest;
 
 import java.io.InputStream;
 
+import pl.openrnd.connection.rest.OnProgressListener;
+import pl.openrnd.connection.rest.OnRequestRefreshListener;
+import pl.openrnd.connection.rest.cache.CachePolicy;
 import pl.openrnd.connection.rest.data.HttpStatusCode;
+import pl.openrnd.connection.rest.response.ReflectiveResponseFactory;
 import pl.openrnd.connection.rest.response.Response;
+import pl.openrnd.connection.rest.response.ResponseFactory;
 
 /**
  * Base request class.
  *
  * Main tasks for extending classes are:
  * - provide valid HttpUriRequest object,
- * - provide Response class object to be used for handling the response
+ * - provide Response class object (or set ResponseFactory object) to be used for handling the response
  */
 public abstract class Request {
 	private static final String TAG = Request.class.getSimpleName();
 	
 	private HttpUriRequest mHttpUriRequest;
 	protected Class<? extends Response> mResponseClass;
+	private ResponseFactory mResponseFactory;
 	private boolean mIsCanceled;
     private Integer mConnectionTimeout;
     private Integer mReadTimeout;
     private String mContentDescription;
     private Object mTag;
+    private OnProgressListener mOnProgressListener;
+    private Long mMaxContentLength;
+    private CachePolicy mCachePolicy;
+    private OnRequestRefreshListener mOnRequestRefreshListener;
 
     /**
      * Class constructor
@@ -69,7 +79,16 @@ public abstract class Request {
 	protected abstract HttpUriRequest onHttpUriRequestCreate(Object... params);
 
     /**
-     * Creates response object from registered Response class object.
+     * Method called by ConnectionHandler on the thread executing the request, right before it is sent.
+     *
+     * Extending classes may override it to update HttpUriRequest object with data that can change
+     * between executions of the same request. Default implementation does nothing.
+     */
+    public void onBeforeExecute() {
+    }
+
+    /**
+     * Creates response object using registered ResponseFactory or Response class object.
      *
      * @param httpStatusCode Http status code (e.g., 200)
      * @param httpReasonPhrase Http reason phrase (e.g., "200 OK")
@@ -79,13 +98,10 @@ public abstract class Request {
      */
 	public Response getResponse(Integer httpStatusCode, String httpReasonPhrase, Header[] headers, InputStream entityContentStream) {
 		Response response = null;
-		if (mResponseClass != null) {
-			@SuppressWarnings("rawtypes")
-			Class[] paramTypes = { Integer.class, String.class, Header[].class, InputStream.class };
-			Object[] paramValues = { httpStatusCode, httpReasonPhrase, headers, entityContentStream };
-			
+		ResponseFactory responseFactory = getResponseFactory();
+		if (responseFactory != null) {
 			try {
-				response = mResponseClass.getConstructor(paramTypes).newInstance(paramValues);
+				response = responseFactory.createResponse(httpStatusCode, httpReasonPhrase, headers, entityContentStream);
                 response.setTag(mTag);
 			} catch (Exception exc) {
 				Log.e(TAG, String.format("getResponse(): exc[%s]", exc.getMessage()));
@@ -95,20 +111,17 @@ public abstract class Request {
 	}
 
     /**
-     * Creates response object from registered Response class object.
+     * Creates response object using registered ResponseFactory or Response class object.
      *
      * @param exception Exception that was thrown during request executing.
      * @return Response object
      */
 	public Response getResponse(Exception exception) {
 		Response response = null;
-		if (mResponseClass != null) {
-			@SuppressWarnings("rawtypes")
-			Class[] paramTypes = { Exception.class };
-			Object[] paramValues = { exception };
-			
+		ResponseFactory responseFactory = getResponseFactory();
+		if (responseFactory != null) {
 			try {
-				response = mResponseClass.getConstructor(paramTypes).newInstance(paramValues);
+				response = responseFactory.createResponse(exception);
                 response.setTag(mTag);
 			} catch (Exception exc) {
 				Log.e(TAG, String.format("getResponse(): exc[%s]", exc.getMessage()));
@@ -117,6 +130,35 @@ public abstract class Request {
 		return response;
 	}
 
+    /**
+     * Gets ResponseFactory object used for creating responses.
+     *
+     * By default this is the factory set by setResponseFactory() or, if Response class object was provided,
+     * ReflectiveResponseFactory related to that class. Extending classes may override this method
+     * to create responses directly.
+     *
+     * @return ResponseFactory object or null if not available.
+     */
+    protected ResponseFactory getResponseFactory() {
+        if (mResponseFactory != null) {
+            return mResponseFactory;
+        } else if (mResponseClass != null) {
+            return ReflectiveResponseFactory.forClass(mResponseClass);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Sets ResponseFactory object used for creating responses instead of the Response class
+     * object provided in constructor.
+     *
+     * @param responseFactory ResponseFactory object that creates response objects
+     */
+    protected void setResponseFactory(ResponseFactory responseFactory) {
+        mResponseFactory = responseFactory;
+    }
+
     /**
      * Gets HttpUriRequest object created by onHttpUriRequestCreate() method
      *
@@ -187,6 +229,24 @@ public abstract class Request {
 		return true;
 	}
 
+    /**
+     * Gets information if response entity content can be read into memory before the response
+     * object is created.
+     *
+     * ConnectionHandlerAsync configured with parse threads reads the content of such requests on
+     * the network thread, releases the connection and creates the response on a parse thread.
+     * By default buffering is not allowed if the used ResponseFactory creates streaming responses.
+     *
+     * @see pl.openrnd.connection.rest.ConnectionConfig.Builder#parseThreadPoolSize(int)
+     * @see pl.openrnd.connection.rest.response.ResponseFactory#isStreaming()
+     *
+     * @return True if content can be buffered, false otherwise.
+     */
+    public boolean supportsContentBuffering() {
+        ResponseFactory responseFactory = getResponseFactory();
+        return (responseFactory == null) || !responseFactory.isStreaming();
+    }
+
     /**
      * Gets the list of supported status codes.
      *
@@ -271,6 +331,26 @@ public abstract class Request {
         return mReadTimeout;
     }
 
+    /**
+     * Sets max response entity content length in bytes.
+     *
+     * Overrides the limit set in ConnectionConfig.
+     *
+     * @param maxContentLength Max content length in bytes or negative value to disable the limit.
+     */
+    public void setMaxContentLength(long maxContentLength) {
+        mMaxContentLength = maxContentLength;
+    }
+
+    /**
+     * Gets max response entity content length in bytes.
+     *
+     * @return Max content length in bytes, negative value if disabled or null if limit set in ConnectionConfig is used.
+     */
+    public Long getMaxContentLength() {
+        return mMaxContentLength;
+    }
+
     /**
      * Sets tag object related to the request.
      *
@@ -289,4 +369,63 @@ public abstract class Request {
     public Object getTag() {
         return mTag;
     }
+
+    /**
+     * Sets OnProgressListener object to be notified about response entity content reading progress.
+     *
+     * Notification is performed on the thread that the request is executed on.
+     *
+     * @param listener OnProgressListener object or null.
+     */
+    public void setProgressListener(OnProgressListener listener) {
+        mOnProgressListener = listener;
+    }
+
+    /**
+     * Gets OnProgressListener object related to the request.
+     *
+     * @return OnProgressListener object or null if not set.
+     */
+    public OnProgressListener getProgressListener() {
+        return mOnProgressListener;
+    }
+
+    /**
+     * Sets client-side cache policy of the request.
+     *
+     * Values set in the policy override the ones taken from response headers.
+     *
+     * @param cachePolicy CachePolicy object or null to use response headers only.
+     */
+    public void setCachePolicy(CachePolicy cachePolicy) {
+        mCachePolicy = cachePolicy;
+    }
+
+    /**
+     * Gets client-side cache policy of the request.
+     *
+     * @return CachePolicy object or null if not set.
+     */
+    public CachePolicy getCachePolicy() {
+        return mCachePolicy;
+    }
+
+    /**
+     * Sets OnRequestRefreshListener object to be notified when stale cached response delivered
+     * for the request is refreshed in the background.
+     *
+     * @param listener OnRequestRefreshListener object or null.
+     */
+    public void setRefreshListener(OnRequestRefreshListener listener) {
+        mOnRequestRefreshListener = listener;
+    }
+
+    /**
+     * Gets OnRequestRefreshListener object related to the request.
+     *
+     * @return OnRequestRefreshListener object or null if not set.
+     */
+    public OnRequestRefreshListener getRefreshListener() {
+        return mOnRequestRefreshListener;
+    }
 }
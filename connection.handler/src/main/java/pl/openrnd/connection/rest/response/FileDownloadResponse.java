@@ -0,0 +1,304 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.response;
+
+import android.util.Log;
+
+import org.apache.http.Header;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import pl.openrnd.connection.rest.data.HttpHeader;
+import pl.openrnd.connection.rest.data.HttpStatusCode;
+import pl.openrnd.connection.rest.utils.Utils;
+
+/**
+ * Response that stores entity content in a file.
+ *
+ * Content is read directly into a large array reused between downloads made on the same thread
+ * and written through FileChannel in large chunks, so memory usage does not depend on the content size.
+ *
+ * Partially downloaded file is resumed when the response is created for FileDownloadRequest:
+ * - 206 (Partial Content) response is appended to the existing file,
+ * - 200 (OK) response replaces the file content,
+ * - 416 (Range Not Satisfiable) response completes the download if the file already has full length.
+ * For other status codes the file is not modified.
+ *
+ * Validator (ETag or Last-Modified) of the downloaded resource is kept next to the file
+ * until the download completes, so the next request can use it in If-Range header.
+ *
+ * @see pl.openrnd.connection.rest.request.FileDownloadRequest
+ */
+public class FileDownloadResponse extends Response {
+    private static final String TAG = FileDownloadResponse.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final String VALIDATOR_FILE_SUFFIX = ".validator";
+    private static final String VALIDATOR_CHARSET = "UTF-8";
+
+    private static final ThreadLocal<byte[]> sBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private File mFile;
+    private long mDownloadedLength;
+    private boolean mIsCompleted;
+
+    /**
+     * Class constructor.
+     *
+     * @param httpStatusCode Http status code (e.g., 200)
+     * @param httpReasonPhrase Http reason phrase (e.g., "200 OK")
+     * @param headers Response headers
+     * @param entityContentStream Opened input stream for response entity. No need to close it.
+     * @param file File in which entity content is stored.
+     */
+    public FileDownloadResponse(Integer httpStatusCode, String httpReasonPhrase, Header[] headers, InputStream entityContentStream, File file) {
+        super(httpStatusCode, httpReasonPhrase, headers);
+
+        mFile = file;
+
+        processContent(entityContentStream);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param exception Exception that was thrown during request executing.
+     */
+    public FileDownloadResponse(Exception exception) {
+        super(exception);
+    }
+
+    /**
+     * Gets file in which entity content is stored.
+     *
+     * @return File object or null if response was created for exception.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Gets number of bytes stored in the file by this response.
+     *
+     * @return Number of bytes stored.
+     */
+    public long getDownloadedLength() {
+        return mDownloadedLength;
+    }
+
+    /**
+     * Gets information if the file contains the whole resource.
+     *
+     * @return True if download is completed, false otherwise.
+     */
+    public boolean isCompleted() {
+        return mIsCompleted;
+    }
+
+    @Override
+    protected void handleContent(InputStream entityContentStream) throws Exception {
+        int statusCode = getHttpStatusCode();
+
+        if (statusCode == HttpStatusCode.SUCCESS_200_OK) {
+            writeValidator(mFile, getValidator());
+            writeContent(entityContentStream, 0);
+        } else if (statusCode == HttpStatusCode.SUCCESS_206_PARTIAL_CONTENT) {
+            long position = parseContentRangeStart(getHeaderValue(HttpHeader.CONTENT_RANGE));
+            if (position != mFile.length()) {
+                deleteValidator(mFile);
+                throw new IOException(String.format("Unexpected content range [%s] for file of length %d",
+                        getHeaderValue(HttpHeader.CONTENT_RANGE), mFile.length()));
+            }
+            writeContent(entityContentStream, position);
+        } else if (statusCode == HttpStatusCode.CLIENT_ERROR_416_RANGE_NOT_SATISFIABLE) {
+            long length = parseContentRangeLength(getHeaderValue(HttpHeader.CONTENT_RANGE));
+            deleteValidator(mFile);
+            if ((length >= 0) && (length == mFile.length())) {
+                mIsCompleted = true;
+            } else {
+                throw new IOException(String.format("Range not satisfiable for file of length %d", mFile.length()));
+            }
+        }
+    }
+
+    private void writeContent(InputStream entityContentStream, long position) throws IOException {
+        long contentLength = Utils.parseContentLength(getHeaderValue(HttpHeader.CONTENT_LENGTH));
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            FileChannel fileChannel = file.getChannel();
+            fileChannel.truncate(position);
+            fileChannel.position(position);
+
+            byte[] data = sBuffer.get();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+
+            boolean isEndOfStream = false;
+            while (!isEndOfStream) {
+                // Buffer is filled before writing, so the file is written in large chunks
+                int length = 0;
+                int read = 0;
+                while ((length < data.length) && ((read = entityContentStream.read(data, length, data.length - length)) != -1)) {
+                    length += read;
+                }
+                isEndOfStream = read == -1;
+
+                buffer.clear();
+                buffer.limit(length);
+                while (buffer.hasRemaining()) {
+                    mDownloadedLength += fileChannel.write(buffer);
+                }
+            }
+        } finally {
+            file.close();
+        }
+
+        mIsCompleted = (contentLength < 0) || (mDownloadedLength == contentLength);
+        if (mIsCompleted) {
+            deleteValidator(mFile);
+        }
+    }
+
+    private String getValidator() {
+        String result = getHeaderValue(HttpHeader.ETAG);
+        if ((result == null) || result.startsWith("W/")) {
+            // If-Range requires strong validator
+            result = getHeaderValue(HttpHeader.LAST_MODIFIED);
+        }
+        return result;
+    }
+
+    private static long parseContentRangeStart(String contentRange) {
+        // Content-Range: bytes <start>-<end>/<length>
+        long result = -1;
+
+        if (contentRange != null) {
+            int unitEnd = contentRange.indexOf(' ');
+            int rangeEnd = contentRange.indexOf('-');
+            if ((unitEnd >= 0) && (rangeEnd > unitEnd)) {
+                result = Utils.parseContentLength(contentRange.substring(unitEnd + 1, rangeEnd));
+            }
+        }
+
+        return result;
+    }
+
+    private static long parseContentRangeLength(String contentRange) {
+        // Content-Range: bytes */<length>
+        long result = -1;
+
+        if (contentRange != null) {
+            int lengthStart = contentRange.lastIndexOf('/');
+            if (lengthStart >= 0) {
+                result = Utils.parseContentLength(contentRange.substring(lengthStart + 1));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets validator (ETag or Last-Modified) stored for partially downloaded file.
+     *
+     * @param file Downloaded file.
+     * @return Validator value or null if not available.
+     */
+    public static String readValidator(File file) {
+        String result = null;
+
+        File validatorFile = getValidatorFile(file);
+        if (validatorFile.exists()) {
+            try {
+                result = Utils.streamToString(new FileInputStream(validatorFile), VALIDATOR_CHARSET, validatorFile.length());
+            } catch (IOException exc) {
+                Log.e(TAG, "readValidator(): EXC", exc);
+            }
+        }
+
+        return ((result != null) && (result.length() > 0)) ? result : null;
+    }
+
+    private static void writeValidator(File file, String validator) throws IOException {
+        if (validator == null) {
+            deleteValidator(file);
+        } else {
+            FileOutputStream outputStream = new FileOutputStream(getValidatorFile(file));
+            try {
+                outputStream.write(validator.getBytes(VALIDATOR_CHARSET));
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+
+    private static void deleteValidator(File file) {
+        File validatorFile = getValidatorFile(file);
+        if (validatorFile.exists() && !validatorFile.delete()) {
+            Log.e(TAG, String.format("deleteValidator(): unable to delete [%s]", validatorFile));
+        }
+    }
+
+    private static File getValidatorFile(File file) {
+        return new File(file.getPath() + VALIDATOR_FILE_SUFFIX);
+    }
+
+    /**
+     * ResponseFactory creating FileDownloadResponse objects for provided file.
+     */
+    public static class Factory implements ResponseFactory {
+        private final File mFile;
+
+        /**
+         * Class constructor.
+         *
+         * @param file File in which entity content is stored.
+         */
+        public Factory(File file) {
+            mFile = file;
+        }
+
+        @Override
+        public Response createResponse(Integer httpStatusCode, String httpReasonPhrase, Header[] headers, InputStream entityContentStream) throws Exception {
+            return new FileDownloadResponse(httpStatusCode, httpReasonPhrase, headers, entityContentStream, mFile);
+        }
+
+        @Override
+        public Response createResponse(Exception exception) throws Exception {
+            return new FileDownloadResponse(exception);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            // Entity content is written directly to the file
+            return true;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.response;
+
+import org.apache.http.Header;
+
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ResponseFactory that creates responses using constructors of provided Response class.
+ *
+ * Constructors are resolved only once per Response class and cached, so creating a response
+ * does not require a reflective lookup.
+ *
+ * @see pl.openrnd.connection.rest.response.Response
+ */
+public final class ReflectiveResponseFactory implements ResponseFactory {
+    private static final ConcurrentHashMap<Class<? extends Response>, ReflectiveResponseFactory> sFactories =
+            new ConcurrentHashMap<Class<? extends Response>, ReflectiveResponseFactory>();
+
+    private final Class<? extends Response> mResponseClass;
+    private final Constructor<? extends Response> mContentConstructor;
+    private final Constructor<? extends Response> mExceptionConstructor;
+
+    private ReflectiveResponseFactory(Class<? extends Response> responseClass) {
+        mResponseClass = responseClass;
+        mContentConstructor = findConstructor(responseClass, Integer.class, String.class, Header[].class, InputStream.class);
+        mExceptionConstructor = findConstructor(responseClass, Exception.class);
+    }
+
+    /**
+     * Gets ResponseFactory object for provided Response class.
+     *
+     * @param responseClass Response class object
+     * @return ReflectiveResponseFactory object related to the class
+     */
+    public static ReflectiveResponseFactory forClass(Class<? extends Response> responseClass) {
+        ReflectiveResponseFactory result = sFactories.get(responseClass);
+        if (result == null) {
+            ReflectiveResponseFactory factory = new ReflectiveResponseFactory(responseClass);
+
+            result = sFactories.putIfAbsent(responseClass, factory);
+            if (result == null) {
+                result = factory;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets Response class object handled by the factory.
+     *
+     * @return Response class object
+     */
+    public Class<? extends Response> getResponseClass() {
+        return mResponseClass;
+    }
+
+    @Override
+    public Response createResponse(Integer httpStatusCode, String httpReasonPhrase, Header[] headers, InputStream entityContentStream) throws Exception {
+        return newInstance(mContentConstructor, httpStatusCode, httpReasonPhrase, headers, entityContentStream);
+    }
+
+    @Override
+    public Response createResponse(Exception exception) throws Exception {
+        return newInstance(mExceptionConstructor, exception);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return StreamingResponse.class.isAssignableFrom(mResponseClass);
+    }
+
+    private Response newInstance(Constructor<? extends Response> constructor, Object... paramValues) throws Exception {
+        if (constructor == null) {
+            throw new NoSuchMethodException(String.format("%s does not provide required constructor", mResponseClass.getName()));
+        }
+
+        try {
+            return constructor.newInstance(paramValues);
+        } catch (InvocationTargetException exc) {
+            Throwable cause = exc.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            throw exc;
+        }
+    }
+
+    private static Constructor<? extends Response> findConstructor(Class<? extends Response> responseClass, Class<?>... paramTypes) {
+        try {
+            return responseClass.getConstructor(paramTypes);
+        } catch (NoSuchMethodException exc) {
+            return null;
+        }
+    }
+}
@@ -21,6 +21,11 @@ package pl.openrnd.connection.rest.response;
 import org.apache.http.Header;
 
 import java.io.InputStream;
+import java.util.List;
+
+import pl.openrnd.connection.rest.data.Headers;
+import pl.openrnd.connection.rest.data.HttpHeader;
+import pl.openrnd.connection.rest.utils.Utils;
 
 /**
  * Base response class
@@ -33,6 +38,9 @@ public abstract class Response {
 	private String mHttpReasonPhrase;
 	private String mContentDescription;
 	private Header[] mHeaders;
+	private Headers mResponseHeaders;
+	private boolean mIsContentDiscarded;
+	private ResponseSource mResponseSource = ResponseSource.NETWORK;
 
     private Object mTag;
 
@@ -45,17 +53,25 @@ public abstract class Response {
      * @param entityContentStream Opened input stream for response entity. No need to close it.
      */
 	public Response(Integer httpStatusCode, String httpReasonPhrase, Header[] headers, InputStream entityContentStream) {
+		this(httpStatusCode, httpReasonPhrase, headers);
+
+		processContent(entityContentStream);
+	}
+
+    /**
+     * Class constructor for extending classes that have to initialize their own fields before
+     * the response entity content is handled.
+     *
+     * Such classes must call processContent() at the end of their constructor.
+     *
+     * @param httpStatusCode Http status code (e.g., 200)
+     * @param httpReasonPhrase Http reason phrase (e.g., "200 OK")
+     * @param headers Response headers
+     */
+	protected Response(Integer httpStatusCode, String httpReasonPhrase, Header[] headers) {
 		mHttpStatusCode = httpStatusCode;
 		mHttpReasonPhrase = httpReasonPhrase;
 		mHeaders = headers;
-		
-		try {
-			handleContent(entityContentStream);
-		} catch (Exception exc) {
-			mException = exc;
-			
-			exc.printStackTrace();
-		}
 	}
 
     /**
@@ -119,20 +135,62 @@ public abstract class Response {
      * @return Header value or null if header with provided key is not found
      */
     public String getHeaderValue(String headerKey) {
-        String result = null;
-
-        if (mHeaders != null) {
-            int length = mHeaders.length;
-            for (int i = 0; i < length; ++i) {
-                Header header = mHeaders[i];
-                if (header.getName().equalsIgnoreCase(headerKey)) {
-                    result = header.getValue();
-                    break;
-                }
-            }
+        return getResponseHeaders().getValue(headerKey);
+    }
+
+    /**
+     * Gets all values of response header
+     *
+     * @param headerKey Header key name
+     * @return Header values in order of appearance, empty list if header with provided key is not found
+     */
+    public List<String> getHeaderValues(String headerKey) {
+        return getResponseHeaders().getValues(headerKey);
+    }
+
+    /**
+     * Gets response headers with case-insensitive lookup by name
+     *
+     * @return Response headers
+     */
+    public Headers getResponseHeaders() {
+        if (mResponseHeaders == null) {
+            mResponseHeaders = new Headers(mHeaders);
         }
+        return mResponseHeaders;
+    }
 
-        return result;
+    /**
+     * Handles the response entity content by calling handleContent().
+     *
+     * Exception thrown while handling the content is stored as the response exception.
+     *
+     * @param entityContentStream Opened input stream to response entity content.
+     */
+	protected final void processContent(InputStream entityContentStream) {
+		try {
+			handleContent(entityContentStream);
+		} catch (Exception exc) {
+			mException = exc;
+			
+			exc.printStackTrace();
+		}
+	}
+
+    /**
+     * Reads response entity content as a String object.
+     *
+     * Content is decoded with the charset declared in Content-Type header (platform default charset
+     * is used if not declared) and the result buffer is presized from Content-Length header.
+     *
+     * @param entityContentStream Opened input stream to response entity content.
+     * @return Response entity content as a String object or null in case of error.
+     */
+    protected String readContentAsString(InputStream entityContentStream) {
+        String charsetName = Utils.getContentCharset(getHeaderValue(HttpHeader.CONTENT_TYPE));
+        long contentLength = Utils.parseContentLength(getHeaderValue(HttpHeader.CONTENT_LENGTH));
+
+        return Utils.streamToString(entityContentStream, charsetName, contentLength);
     }
 
     /**
@@ -145,6 +203,26 @@ public abstract class Response {
      */
 	protected abstract void handleContent(InputStream entityContentStream) throws Exception;
 
+    /**
+     * Marks the rest of response entity content as not needed.
+     *
+     * When set, ConnectionHandler does not read remaining entity content after the response
+     * is created, but closes the connection instead of returning it to the pool. This is
+     * cheaper when large part of the content is left unread.
+     */
+    protected void discardContent() {
+        mIsContentDiscarded = true;
+    }
+
+    /**
+     * Gets information if the rest of response entity content was marked as not needed.
+     *
+     * @return True if remaining content should be discarded, false otherwise.
+     */
+    public boolean isContentDiscarded() {
+        return mIsContentDiscarded;
+    }
+
     /**
      * Gets the content description.
      *
@@ -167,6 +245,35 @@ public abstract class Response {
         mContentDescription = contentDescription;
     }
 
+    /**
+     * Sets source of data used for creating the response.
+     *
+     * Method is called by ConnectionHandler.
+     *
+     * @param responseSource ResponseSource value
+     */
+    public void setResponseSource(ResponseSource responseSource) {
+        mResponseSource = responseSource;
+    }
+
+    /**
+     * Gets source of data used for creating the response.
+     *
+     * @return ResponseSource value, NETWORK by default
+     */
+    public ResponseSource getResponseSource() {
+        return mResponseSource;
+    }
+
+    /**
+     * Gets information if the response was created from a stale cached response.
+     *
+     * @return True if stale cached response was used, false otherwise
+     */
+    public boolean isStale() {
+        return mResponseSource == ResponseSource.STALE_CACHE;
+    }
+
     /**
      * Sets tag object related to the response.
      *
@@ -0,0 +1,67 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.response;
+
+import org.apache.http.Header;
+
+import java.io.InputStream;
+
+/**
+ * Interface used by Request for creating Response objects.
+ *
+ * Requests may provide own implementation to create responses directly, without
+ * any reflection. By default ReflectiveResponseFactory is used.
+ *
+ * @see pl.openrnd.connection.rest.request.Request
+ * @see pl.openrnd.connection.rest.response.ReflectiveResponseFactory
+ */
+public interface ResponseFactory {
+
+    /**
+     * Creates response object for server response.
+     *
+     * @param httpStatusCode Http status code (e.g., 200)
+     * @param httpReasonPhrase Http reason phrase (e.g., "200 OK")
+     * @param headers Response headers
+     * @param entityContentStream Opened input stream for response entity. No need to close it.
+     * @return Response object
+     * @throws Exception Exception if response object can not be created.
+     */
+    Response createResponse(Integer httpStatusCode, String httpReasonPhrase, Header[] headers, InputStream entityContentStream) throws Exception;
+
+    /**
+     * Creates response object for exception thrown during request execution.
+     *
+     * @param exception Exception that was thrown during request executing.
+     * @return Response object
+     * @throws Exception Exception if response object can not be created.
+     */
+    Response createResponse(Exception exception) throws Exception;
+
+    /**
+     * Gets information if created responses process entity content as it arrives.
+     *
+     * Entity content of such responses is never read into memory before the response is created.
+     *
+     * @see pl.openrnd.connection.rest.request.Request#supportsContentBuffering()
+     *
+     * @return True if responses stream entity content, false otherwise.
+     */
+    boolean isStreaming();
+}
@@ -0,0 +1,49 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.response;
+
+/**
+ * Source of data used for creating Response object.
+ *
+ * @see pl.openrnd.connection.rest.response.Response#getResponseSource()
+ */
+public enum ResponseSource {
+    /**
+     * Response was received from the server.
+     */
+    NETWORK,
+
+    /**
+     * Response was created from a fresh cached response, without network access.
+     */
+    CACHE,
+
+    /**
+     * Response was created from a stale cached response, after the server confirmed it is still
+     * valid (304 Not Modified).
+     */
+    CONDITIONAL_CACHE,
+
+    /**
+     * Response was created from a stale cached response, either while the response is revalidated
+     * in the background (stale-while-revalidate) or because the server could not be reached
+     * (stale-if-error).
+     */
+    STALE_CACHE
+}
@@ -0,0 +1,124 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.response;
+
+import org.apache.http.Header;
+
+import java.io.InputStream;
+
+import pl.openrnd.connection.rest.data.HttpHeader;
+import pl.openrnd.connection.rest.utils.Utils;
+
+/**
+ * Base class for responses that process entity content in chunks, as it arrives,
+ * without buffering the whole content.
+ *
+ * Processing can be finished early by returning false from onContentChunk(). In that case
+ * the rest of the content is not read and ConnectionHandler closes the connection
+ * instead of returning it to the pool.
+ *
+ * Reading progress can be observed by registering OnProgressListener in the request.
+ *
+ * @see pl.openrnd.connection.rest.request.Request#setProgressListener(pl.openrnd.connection.rest.OnProgressListener)
+ */
+public abstract class StreamingResponse extends Response {
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final ThreadLocal<byte[]> sChunkBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHUNK_SIZE];
+        }
+    };
+
+    /**
+     * Class constructor.
+     *
+     * @param httpStatusCode Http status code (e.g., 200)
+     * @param httpReasonPhrase Http reason phrase (e.g., "200 OK")
+     * @param headers Response headers
+     * @param entityContentStream Opened input stream for response entity. No need to close it.
+     */
+    public StreamingResponse(Integer httpStatusCode, String httpReasonPhrase, Header[] headers, InputStream entityContentStream) {
+        super(httpStatusCode, httpReasonPhrase, headers, entityContentStream);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param exception Exception that was thrown during request executing.
+     */
+    public StreamingResponse(Exception exception) {
+        super(exception);
+    }
+
+    @Override
+    protected final void handleContent(InputStream entityContentStream) throws Exception {
+        long contentLength = Utils.parseContentLength(getHeaderValue(HttpHeader.CONTENT_LENGTH));
+
+        onContentStart(contentLength);
+
+        boolean isCompleted = true;
+        if (entityContentStream != null) {
+            byte[] buffer = sChunkBuffer.get();
+            int read;
+            while ((read = entityContentStream.read(buffer, 0, buffer.length)) != -1) {
+                if ((read > 0) && !onContentChunk(buffer, 0, read)) {
+                    isCompleted = false;
+                    discardContent();
+                    break;
+                }
+            }
+        }
+
+        onContentEnd(isCompleted);
+    }
+
+    /**
+     * Method called before the first content chunk is delivered.
+     *
+     * @param contentLength Entity content length taken from Content-Length header or -1 if not known.
+     * @throws Exception Exception if content can not be successfully handled.
+     */
+    protected void onContentStart(long contentLength) throws Exception {
+    }
+
+    /**
+     * Method to be overridden by extended class to handle entity content chunk.
+     *
+     * Provided buffer is reused for next chunks, so its data must be copied if needed
+     * after the method returns.
+     *
+     * @param buffer Buffer with chunk data.
+     * @param offset Chunk data offset in the buffer.
+     * @param length Chunk data length.
+     * @return True to continue processing, false to finish processing and discard the rest of the content.
+     * @throws Exception Exception if content can not be successfully handled.
+     */
+    protected abstract boolean onContentChunk(byte[] buffer, int offset, int length) throws Exception;
+
+    /**
+     * Method called when content processing is finished.
+     *
+     * @param isCompleted True if whole content was processed, false if processing was finished early.
+     * @throws Exception Exception if content can not be successfully handled.
+     */
+    protected void onContentEnd(boolean isCompleted) throws Exception {
+    }
+}
@@ -0,0 +1,351 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.socket;
+
+import android.util.Log;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection operator that races connection attempts to all addresses of a dual-stack host
+ * ("Happy Eyeballs", RFC 6555/8305).
+ *
+ * Resolved addresses are interleaved by address family, starting with the family of the first
+ * address returned by the resolver. The first attempt is started immediately and each next one
+ * is started after the connection attempt delay, or immediately when all running attempts have
+ * failed. The first socket that connects is used and all remaining attempts are closed.
+ *
+ * Racing is done in the operator, because DefaultClientConnectionOperator resolves the host itself
+ * and passes single address literals to the socket factory. Connected socket of a secure scheme is
+ * layered by the scheme's LayeredSocketFactory with the target host name, so hostname verification
+ * works as with the default operator. Schemes with other socket factories are handled by
+ * DefaultClientConnectionOperator.
+ */
+public class HappyEyeballsConnectionOperator extends DefaultClientConnectionOperator {
+    private static final String TAG = HappyEyeballsConnectionOperator.class.getSimpleName();
+
+    private static final ExecutorService sConnectExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private int mThreadCounter = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, String.format("HappyEyeballs-%d", mThreadCounter++));
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final int mConnectionAttemptDelay;
+
+    /**
+     * Class constructor.
+     *
+     * @param schemeRegistry SchemeRegistry object with supported schemes.
+     * @param connectionAttemptDelay Delay in milliseconds between starting consecutive connection attempts.
+     */
+    public HappyEyeballsConnectionOperator(SchemeRegistry schemeRegistry, int connectionAttemptDelay) {
+        super(schemeRegistry);
+
+        mConnectionAttemptDelay = connectionAttemptDelay;
+    }
+
+    /**
+     * Creates thread safe connection manager using HappyEyeballsConnectionOperator.
+     *
+     * @param params HttpParams object.
+     * @param schemeRegistry SchemeRegistry object with supported schemes.
+     * @param connectionAttemptDelay Delay in milliseconds between starting consecutive connection attempts.
+     * @return ClientConnectionManager object.
+     */
+    public static ClientConnectionManager createConnectionManager(HttpParams params, SchemeRegistry schemeRegistry, final int connectionAttemptDelay) {
+        return new ThreadSafeClientConnManager(params, schemeRegistry) {
+            @Override
+            protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schreg) {
+                return new HappyEyeballsConnectionOperator(schreg, connectionAttemptDelay);
+            }
+        };
+    }
+
+    @Override
+    public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local, HttpContext context, HttpParams params) throws IOException {
+        if (conn == null) {
+            throw new IllegalArgumentException("Connection must not be null.");
+        }
+        if (target == null) {
+            throw new IllegalArgumentException("Target host must not be null.");
+        }
+        if (params == null) {
+            throw new IllegalArgumentException("Parameters must not be null.");
+        }
+        if (conn.isOpen()) {
+            throw new IllegalArgumentException("Connection must not be open.");
+        }
+
+        Scheme scheme = schemeRegistry.getScheme(target.getSchemeName());
+        SocketFactory socketFactory = scheme.getSocketFactory();
+        if (!(socketFactory instanceof PlainSocketFactory) && !(socketFactory instanceof LayeredSocketFactory)) {
+            super.openConnection(conn, target, local, context, params);
+            return;
+        }
+
+        int port = scheme.resolvePort(target.getPort());
+        int connectionTimeout = HttpConnectionParams.getConnectionTimeout(params);
+        long deadline = connectionTimeout > 0 ? System.currentTimeMillis() + connectionTimeout : Long.MAX_VALUE;
+
+        List<InetAddress> addresses = sortAddresses(resolveAddresses(target.getHostName()));
+
+        Socket socket;
+        try {
+            socket = race(addresses, port, local, 0, deadline);
+        } catch (ConnectException exc) {
+            throw new HttpHostConnectException(target, exc);
+        }
+        conn.opening(socket, target);
+
+        if (socketFactory instanceof LayeredSocketFactory) {
+            Socket layeredSocket = ((LayeredSocketFactory)socketFactory).createSocket(socket, target.getHostName(), port, true);
+            if (layeredSocket != socket) {
+                socket = layeredSocket;
+                conn.opening(socket, target);
+            }
+        }
+
+        prepareSocket(socket, context, params);
+        conn.openCompleted(socketFactory.isSecure(socket), params);
+    }
+
+    /**
+     * Resolves addresses of the target host.
+     *
+     * @param host Target host name.
+     * @return Array of host addresses, never empty.
+     * @throws UnknownHostException If the host could not be resolved.
+     */
+    protected InetAddress[] resolveAddresses(String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+    private Socket race(List<InetAddress> addresses, int port, InetAddress localAddress, int localPort, long deadline) throws IOException {
+        ExecutorCompletionService<Socket> completionService = new ExecutorCompletionService<Socket>(sConnectExecutor);
+        List<ConnectAttempt> attempts = new ArrayList<ConnectAttempt>(addresses.size());
+
+        Socket result = null;
+        IOException lastException = null;
+        int finished = 0;
+
+        try {
+            startAttempt(completionService, attempts, addresses.get(0), port, localAddress, localPort, deadline);
+
+            while (result == null) {
+                boolean hasMoreAddresses = attempts.size() < addresses.size();
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new ConnectTimeoutException(String.format("Connect to %s timed out", addresses));
+                }
+
+                long wait = hasMoreAddresses ? Math.min(mConnectionAttemptDelay, remaining) : remaining;
+                Future<Socket> future = completionService.poll(wait, TimeUnit.MILLISECONDS);
+
+                if (future == null) {
+                    if (hasMoreAddresses) {
+                        startAttempt(completionService, attempts, addresses.get(attempts.size()), port, localAddress, localPort, deadline);
+                    }
+                    continue;
+                }
+
+                ++finished;
+                try {
+                    result = future.get();
+                } catch (ExecutionException exc) {
+                    lastException = toIOException(exc.getCause());
+
+                    Log.d(TAG, String.format("race(): attempt failed [%s]", lastException.getMessage()));
+
+                    if (finished == attempts.size()) {
+                        if (!hasMoreAddresses) {
+                            throw lastException;
+                        }
+                        startAttempt(completionService, attempts, addresses.get(attempts.size()), port, localAddress, localPort, deadline);
+                    }
+                }
+            }
+        } catch (InterruptedException exc) {
+            throw new InterruptedIOException("Connection attempt interrupted");
+        } finally {
+            for (ConnectAttempt attempt : attempts) {
+                attempt.abandon(result);
+            }
+        }
+
+        return result;
+    }
+
+    private void startAttempt(ExecutorCompletionService<Socket> completionService, List<ConnectAttempt> attempts,
+                              InetAddress address, int port, InetAddress localAddress, int localPort, long deadline) {
+        ConnectAttempt attempt = new ConnectAttempt(new InetSocketAddress(address, port), localAddress, localPort, deadline);
+        attempts.add(attempt);
+        completionService.submit(attempt);
+    }
+
+    private static List<InetAddress> sortAddresses(InetAddress[] addresses) {
+        LinkedList<InetAddress> preferred = new LinkedList<InetAddress>();
+        LinkedList<InetAddress> other = new LinkedList<InetAddress>();
+
+        boolean isPreferredIpv6 = addresses[0] instanceof Inet6Address;
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == isPreferredIpv6) {
+                preferred.add(address);
+            } else {
+                other.add(address);
+            }
+        }
+
+        List<InetAddress> result = new ArrayList<InetAddress>(addresses.length);
+        while (!preferred.isEmpty() || !other.isEmpty()) {
+            if (!preferred.isEmpty()) {
+                result.add(preferred.removeFirst());
+            }
+            if (!other.isEmpty()) {
+                result.add(other.removeFirst());
+            }
+        }
+        return result;
+    }
+
+    private static IOException toIOException(Throwable throwable) {
+        if (throwable instanceof IOException) {
+            return (IOException)throwable;
+        } else {
+            IOException result = new IOException(throwable != null ? throwable.getMessage() : null);
+            result.initCause(throwable);
+            return result;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException exc) {
+            Log.e(TAG, "closeQuietly(): EXC", exc);
+        }
+    }
+
+    private static class ConnectAttempt implements Callable<Socket> {
+        private final InetSocketAddress mRemoteAddress;
+        private final InetAddress mLocalAddress;
+        private final int mLocalPort;
+        private final long mDeadline;
+
+        private Socket mSocket;
+        private boolean mIsAbandoned;
+
+        ConnectAttempt(InetSocketAddress remoteAddress, InetAddress localAddress, int localPort, long deadline) {
+            mRemoteAddress = remoteAddress;
+            mLocalAddress = localAddress;
+            mLocalPort = localPort;
+            mDeadline = deadline;
+        }
+
+        @Override
+        public Socket call() throws Exception {
+            Socket socket = new Socket();
+
+            synchronized (this) {
+                if (mIsAbandoned) {
+                    throw new InterruptedIOException("Connection attempt abandoned");
+                }
+                mSocket = socket;
+            }
+
+            if ((mLocalAddress != null) || (mLocalPort > 0)) {
+                socket.bind(new InetSocketAddress(mLocalAddress, Math.max(mLocalPort, 0)));
+            }
+
+            long remaining = mDeadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new ConnectTimeoutException(String.format("Connect to %s timed out", mRemoteAddress));
+            }
+
+            try {
+                socket.connect(mRemoteAddress, (int)Math.min(remaining, Integer.MAX_VALUE));
+            } catch (SocketTimeoutException exc) {
+                throw new ConnectTimeoutException(String.format("Connect to %s timed out", mRemoteAddress));
+            }
+
+            synchronized (this) {
+                if (mIsAbandoned) {
+                    closeQuietly(socket);
+                    throw new InterruptedIOException("Connection attempt abandoned");
+                }
+            }
+
+            return socket;
+        }
+
+        /**
+         * Closes the attempt socket unless it is the winning one.
+         */
+        synchronized void abandon(Socket winner) {
+            if ((winner == null) || (mSocket != winner)) {
+                mIsAbandoned = true;
+
+                if (mSocket != null) {
+                    closeQuietly(mSocket);
+                }
+            }
+        }
+    }
+}
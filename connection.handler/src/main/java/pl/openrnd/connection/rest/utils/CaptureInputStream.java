@@ -0,0 +1,134 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that keeps a copy of the first bytes read from wrapped stream.
+ *
+ * Only up to the provided number of bytes is copied, the rest of the data is passed through.
+ */
+public class CaptureInputStream extends FilterInputStream {
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final int mMaxCaptureSize;
+    private byte[] mBuffer;
+    private int mCapturedSize;
+    private boolean mIsTruncated;
+
+    /**
+     * Class constructor.
+     *
+     * @param inputStream InputStream to be wrapped.
+     * @param maxCaptureSize Max number of bytes to be copied.
+     * @param contentLength Expected data length in bytes or -1 if not known. Used for sizing the copy buffer.
+     */
+    public CaptureInputStream(InputStream inputStream, int maxCaptureSize, long contentLength) {
+        super(inputStream);
+
+        mMaxCaptureSize = maxCaptureSize;
+
+        long initialSize = contentLength >= 0 ? contentLength : INITIAL_BUFFER_SIZE;
+        mBuffer = new byte[(int)Math.min(initialSize, maxCaptureSize)];
+    }
+
+    /**
+     * Gets copied data.
+     *
+     * @return Buffer with copied data. Only getCapturedSize() first bytes are valid.
+     */
+    public byte[] getCapturedData() {
+        return mBuffer;
+    }
+
+    /**
+     * Gets number of copied bytes.
+     *
+     * @return Number of copied bytes.
+     */
+    public int getCapturedSize() {
+        return mCapturedSize;
+    }
+
+    /**
+     * Gets information if more data was read than copied.
+     *
+     * @return True if copied data is truncated, false otherwise.
+     */
+    public boolean isTruncated() {
+        return mIsTruncated;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = super.read();
+        if (result != -1) {
+            if (mCapturedSize < mMaxCaptureSize) {
+                ensureCapacity(mCapturedSize + 1);
+                mBuffer[mCapturedSize++] = (byte)result;
+            } else {
+                mIsTruncated = true;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int result = super.read(buffer, offset, count);
+        if (result > 0) {
+            int captured = Math.min(result, mMaxCaptureSize - mCapturedSize);
+            if (captured > 0) {
+                ensureCapacity(mCapturedSize + captured);
+                System.arraycopy(buffer, offset, mBuffer, mCapturedSize, captured);
+                mCapturedSize += captured;
+            }
+            if (captured < result) {
+                mIsTruncated = true;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long result = super.skip(count);
+        if (result > 0) {
+            mIsTruncated = true;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mBuffer.length) {
+            int newCapacity = Math.min(Math.max(capacity, mBuffer.length * 2), mMaxCaptureSize);
+            byte[] buffer = new byte[newCapacity];
+            System.arraycopy(mBuffer, 0, buffer, 0, mCapturedSize);
+            mBuffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import pl.openrnd.connection.rest.exception.ContentLengthExceededException;
+
+/**
+ * InputStream that fails with ContentLengthExceededException when more than allowed
+ * number of bytes is read from wrapped stream.
+ *
+ * The exception is remembered, so it can be reported even if the reader swallowed it.
+ */
+public class LimitedInputStream extends FilterInputStream {
+    private final long mMaxLength;
+    private long mBytesRead;
+    private ContentLengthExceededException mException;
+
+    /**
+     * Class constructor.
+     *
+     * @param inputStream InputStream to be wrapped.
+     * @param maxLength Max number of bytes that can be read.
+     */
+    public LimitedInputStream(InputStream inputStream, long maxLength) {
+        super(inputStream);
+
+        mMaxLength = maxLength;
+    }
+
+    /**
+     * Gets exception thrown when the limit was exceeded.
+     *
+     * @return ContentLengthExceededException object or null if the limit was not exceeded.
+     */
+    public ContentLengthExceededException getException() {
+        return mException;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkLimit();
+
+        int result = super.read();
+        if (result != -1) {
+            onBytesRead(1);
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        checkLimit();
+
+        // Reading one byte over the limit is enough to detect exceeding it
+        int allowed = (int)Math.min(count, mMaxLength - mBytesRead + 1);
+        int result = super.read(buffer, offset, allowed);
+        if (result > 0) {
+            onBytesRead(result);
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        checkLimit();
+
+        long result = super.skip(Math.min(count, mMaxLength - mBytesRead + 1));
+        if (result > 0) {
+            onBytesRead(result);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void onBytesRead(long count) throws ContentLengthExceededException {
+        mBytesRead += count;
+        checkLimit();
+    }
+
+    private void checkLimit() throws ContentLengthExceededException {
+        if (mException != null) {
+            throw mException;
+        }
+
+        if (mBytesRead > mMaxLength) {
+            mException = new ContentLengthExceededException(mMaxLength, -1);
+            throw mException;
+        }
+    }
+}
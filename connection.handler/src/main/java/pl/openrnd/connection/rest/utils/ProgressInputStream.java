@@ -0,0 +1,98 @@
+/******************************************************************************
+ *
+ *  2015 (C) Copyright Open-RnD Sp. z o.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ ******************************************************************************/
+
+package pl.openrnd.connection.rest.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import pl.openrnd.connection.rest.OnProgressListener;
+import pl.openrnd.connection.rest.request.Request;
+
+/**
+ * InputStream that notifies OnProgressListener about number of bytes read from wrapped stream.
+ */
+public class ProgressInputStream extends FilterInputStream {
+    private final Request mRequest;
+    private final OnProgressListener mOnProgressListener;
+    private final long mContentLength;
+    private long mBytesRead;
+
+    /**
+     * Class constructor.
+     *
+     * @param inputStream InputStream to be wrapped.
+     * @param contentLength Content length in bytes or -1 if not known.
+     * @param request Request related to the stream.
+     * @param listener OnProgressListener object to be notified.
+     */
+    public ProgressInputStream(InputStream inputStream, long contentLength, Request request, OnProgressListener listener) {
+        super(inputStream);
+
+        mContentLength = contentLength;
+        mRequest = request;
+        mOnProgressListener = listener;
+    }
+
+    /**
+     * Gets number of bytes read so far.
+     *
+     * @return Number of bytes read.
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = super.read();
+        if (result != -1) {
+            onBytesRead(1);
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int result = super.read(buffer, offset, count);
+        if (result > 0) {
+            onBytesRead(result);
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long result = super.skip(count);
+        if (result > 0) {
+            onBytesRead(result);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void onBytesRead(long count) {
+        mBytesRead += count;
+        mOnProgressListener.onProgress(mRequest, mBytesRead, mContentLength);
+    }
+}
@@ -20,32 +20,67 @@ package pl.openrnd.connection.rest.utils;
 
 import android.util.Log;
 
-import java.io.BufferedReader;
+import org.apache.http.util.ByteArrayBuffer;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.Charset;
 
 public final class Utils {
 	private static final String TAG = Utils.class.getSimpleName();
 	private static final int BUFFER_SIZE = 8192;
+	private static final int MAX_PRESIZED_CAPACITY = 1024 * 1024;
+	private static final String CHARSET_PARAMETER = "charset=";
+
+	private static final ThreadLocal<byte[]> sByteBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	private static final ThreadLocal<char[]> sCharBuffer = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[BUFFER_SIZE];
+		}
+	};
 	
 	private Utils() {}
 
     /**
      * Tries to read data from provided input stream as a String object.
      *
+     * Data is decoded using platform default charset.
+     *
      * @param inputStream InputStream from which data has to be read.
      * @return String object from the stream or null in case of error.
      */
 	public static String streamToString(InputStream inputStream) {
+		return streamToString(inputStream, null, -1);
+	}
+
+    /**
+     * Tries to read data from provided input stream as a String object.
+     *
+     * Read buffer is reused between calls made on the same thread and the result buffer
+     * is presized from provided content length.
+     *
+     * @param inputStream InputStream from which data has to be read.
+     * @param charsetName Charset name used for decoding data. If null or not supported, platform default charset is used.
+     * @param contentLength Expected data length in bytes (e.g. from Content-Length header) or negative value if not known.
+     * @return String object from the stream or null in case of error.
+     */
+	public static String streamToString(InputStream inputStream, String charsetName, long contentLength) {
 		String result = null;
 
 		Reader reader = null;
 	    try {
-	        reader = new BufferedReader(new InputStreamReader(inputStream));
-	        StringBuilder builder = new StringBuilder();
-	        char[] buffer = new char[BUFFER_SIZE];
+	        reader = new InputStreamReader(inputStream, getCharset(charsetName));
+	        StringBuilder builder = new StringBuilder(getInitialCapacity(contentLength));
+	        char[] buffer = sCharBuffer.get();
 	        int read;
 	        while ((read = reader.read(buffer, 0, buffer.length)) > 0) {
 	            builder.append(buffer, 0, read);
@@ -67,4 +102,129 @@ public final class Utils {
 	    }    
 		return result;
 	}
+
+    /**
+     * Reads all data from provided input stream into a buffer.
+     *
+     * The buffer is presized from provided content length. The stream is not closed.
+     *
+     * @param inputStream InputStream from which data has to be read.
+     * @param contentLength Expected data length in bytes (e.g. from Content-Length header) or negative value if not known.
+     * @return ByteArrayBuffer object with read data.
+     * @throws IOException Exception if data can not be read.
+     */
+	public static ByteArrayBuffer readFully(InputStream inputStream, long contentLength) throws IOException {
+		ByteArrayBuffer result = new ByteArrayBuffer(getInitialCapacity(contentLength));
+
+		byte[] buffer = sByteBuffer.get();
+		int read;
+		while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+			result.append(buffer, 0, read);
+		}
+
+		return result;
+	}
+
+    /**
+     * Reads data from provided input stream into a buffer, but not more than provided number of bytes.
+     *
+     * At most maxLength + 1 bytes are read, so the returned buffer is longer than maxLength only
+     * if the stream contains more data than the limit. The stream is not closed.
+     *
+     * @param inputStream InputStream from which data has to be read.
+     * @param maxLength Max number of bytes to be read.
+     * @return ByteArrayBuffer object with read data.
+     * @throws IOException Exception if data can not be read.
+     */
+	public static ByteArrayBuffer readAtMost(InputStream inputStream, int maxLength) throws IOException {
+		ByteArrayBuffer result = new ByteArrayBuffer(Math.min(maxLength + 1, BUFFER_SIZE));
+
+		byte[] buffer = sByteBuffer.get();
+		int remaining = maxLength + 1;
+		int read;
+		while ((remaining > 0) && ((read = inputStream.read(buffer, 0, Math.min(remaining, buffer.length))) != -1)) {
+			result.append(buffer, 0, read);
+			remaining -= read;
+		}
+
+		return result;
+	}
+
+    /**
+     * Decodes provided data as a String object.
+     *
+     * @param data Data to be decoded.
+     * @param offset Offset of the first byte to be decoded.
+     * @param length Number of bytes to be decoded.
+     * @param charsetName Charset name used for decoding data. If null or not supported, platform default charset is used.
+     * @return Decoded String object.
+     */
+	public static String bytesToString(byte[] data, int offset, int length, String charsetName) {
+		return new String(data, offset, length, getCharset(charsetName));
+	}
+
+    /**
+     * Gets charset name declared in Content-Type header value.
+     *
+     * @param contentType Content-Type header value (e.g. "application/json; charset=utf-8")
+     * @return Charset name or null if not declared.
+     */
+	public static String getContentCharset(String contentType) {
+		String result = null;
+
+		if (contentType != null) {
+			String[] parameters = contentType.split(";");
+			for (int i = 1; i < parameters.length; ++i) {
+				String parameter = parameters[i].trim();
+				if (parameter.regionMatches(true, 0, CHARSET_PARAMETER, 0, CHARSET_PARAMETER.length())) {
+					result = parameter.substring(CHARSET_PARAMETER.length()).trim();
+					if ((result.length() > 1) && result.startsWith("\"") && result.endsWith("\"")) {
+						result = result.substring(1, result.length() - 1);
+					}
+					break;
+				}
+			}
+		}
+
+		return result;
+	}
+
+    /**
+     * Parses Content-Length header value.
+     *
+     * @param contentLength Content-Length header value
+     * @return Content length in bytes or -1 if value is not available or not valid.
+     */
+	public static long parseContentLength(String contentLength) {
+		long result = -1;
+
+		if (contentLength != null) {
+			try {
+				result = Long.parseLong(contentLength.trim());
+			} catch (NumberFormatException exc) {
+				Log.e(TAG, String.format("parseContentLength(): invalid value[%s]", contentLength));
+			}
+		}
+
+		return result < 0 ? -1 : result;
+	}
+
+	private static Charset getCharset(String charsetName) {
+		if (charsetName != null) {
+			try {
+				return Charset.forName(charsetName);
+			} catch (IllegalArgumentException exc) {
+				Log.e(TAG, String.format("getCharset(): unsupported charset[%s]", charsetName));
+			}
+		}
+		return Charset.defaultCharset();
+	}
+
+	private static int getInitialCapacity(long contentLength) {
+		if (contentLength > 0) {
+			return (int)Math.min(contentLength, MAX_PRESIZED_CAPACITY);
+		} else {
+			return BUFFER_SIZE;
+		}
+	}
 }
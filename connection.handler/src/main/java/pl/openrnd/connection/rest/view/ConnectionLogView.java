@@ -33,6 +33,7 @@ import java.util.ArrayList;
 import pl.openrnd.connection.rest.ConnectionLog;
 import pl.openrnd.connection.rest.R;
 import pl.openrnd.connection.rest.RestConnectionLog;
+import pl.openrnd.connection.rest.data.Headers;
 
 public class ConnectionLogView extends LinearLayout {
     private View mReqNameTitleView;
@@ -229,8 +230,8 @@ public class ConnectionLogView extends LinearLayout {
         mMethodView.setText(getTextOrNA(mConnectionLog.getRequestMethod()));
         mStatusView.setText(getTextOrNA(getStatus()));
         mExceptionView.setText(getTextOrNA(getException()));
-        mRequestHeadersView.setText(getTextOrNA(getHeaders(mConnectionLog.getRequestHeaders())));
-        mResponseHeadersView.setText(getTextOrNA(getHeaders(mConnectionLog.getResponseHeaders())));
+        mRequestHeadersView.setText(getTextOrNA(getHeaders(mConnectionLog.getRequestHeaderList())));
+        mResponseHeadersView.setText(getTextOrNA(getHeaders(mConnectionLog.getResponseHeaderList())));
         mRequestEntityView.setText(getTextOrNA(mConnectionLog.getRequestContent()));
         mResponseEntityView.setText(getTextOrNA(mConnectionLog.getResponseContent()));
         mCookieView.setText(getTextOrNA(getCookiesDescription(mConnectionLog.getCookies())));
@@ -287,17 +288,17 @@ public class ConnectionLogView extends LinearLayout {
         return result.toString();
     }
 
-    private String getHeaders(RestConnectionLog.Header[] headers) {
+    private String getHeaders(Headers headers) {
         StringBuilder result = new StringBuilder();
 
         if (headers != null) {
-            for (RestConnectionLog.Header header : headers) {
+            for (int i = 0; i < headers.size(); ++i) {
                 if (result.length() > 0) {
                     result.append("\n");
                 }
-                result.append(header.getKey());
+                result.append(headers.getName(i));
                 result.append("\n");
-                result.append(header.getValue());
+                result.append(headers.getValue(i));
                 result.append("\n");
             }
         }
@@ -121,16 +121,12 @@ public class ConnectionLogsView extends RelativeLayout {
         refreshLogs(null);
     }
 
-    private void refreshLogs(final ConnectionLogger connectionLogger) {
+    private void refreshLogs(ConnectionLogger connectionLogger) {
         Log.v(TAG, "refreshLogs()");
 
+        // Logger notifications are coalesced and performed on the main thread, so logs are taken once per batch
         if (connectionLogger != null) {
-            post(new Runnable() {
-                @Override
-                public void run() {
-                    mLogsAdapter.setConnectionLogs(connectionLogger.getConnectionLogs());
-                }
-            });
+            mLogsAdapter.setConnectionLogs(connectionLogger.getConnectionLogs());
         }
     }
 